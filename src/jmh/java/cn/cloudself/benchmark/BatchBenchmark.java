@@ -0,0 +1,53 @@
+package cn.cloudself.benchmark;
+
+import cn.cloudself.script.JavaScript;
+import cn.cloudself.script.JavaScriptUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PreparedBatch.evalBatch，每次调用计算batchSize行，吞吐量乘以batchSize即为每秒行数
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int batchSize;
+
+    private final List<String> varNames = Arrays.asList("a", "b", "c");
+    private final List<Map<String, Object>> rows = new ArrayList<>();
+    private JavaScript.PreparedBatch batch;
+
+    @Setup
+    public void setup() {
+        JavaScript.disableLogThreadLocal(true);
+        for (int i = 0; i < batchSize; i++) {
+            final Map<String, Object> row = new HashMap<>();
+            row.put("a", i);
+            row.put("b", i * 0.5);
+            row.put("c", i % 7);
+            rows.add(row);
+        }
+        batch = JavaScriptUtil.ofBatch("a + b * c");
+    }
+
+    @Benchmark
+    public List<Object> evalBatch() {
+        final List<Iterator<? extends Map.Entry<String, ?>>> varsBatch = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            varsBatch.add(row.entrySet().iterator());
+        }
+        return batch.evalBatch(varNames, varsBatch);
+    }
+}
@@ -0,0 +1,88 @@
+package cn.cloudself.benchmark;
+
+import cn.cloudself.script.util.BeanHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BeanHelper.toMapDeep：属性多的浅层Bean与层级深的Bean
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BeanHelperBenchmark {
+    private final BeanHelper beanHelper = BeanHelper.createDefault();
+    private final Wide wide = new Wide();
+    private Deep deep;
+
+    @Setup
+    public void setup() {
+        deep = Deep.of(8);
+    }
+
+    @Benchmark
+    public Map<String, Object> toMapDeepWide() {
+        return beanHelper.toMapDeep(wide);
+    }
+
+    @Benchmark
+    public Map<String, Object> toMapDeepDeep() {
+        return beanHelper.toMapDeep(deep);
+    }
+
+    public static class Wide {
+        private int f0 = 0;
+        private long f1 = 1;
+        private double f2 = 2;
+        private String f3 = "3";
+        private Integer f4 = 4;
+        private Long f5 = 5L;
+        private Double f6 = 6.0;
+        private boolean f7 = true;
+        private String f8 = "8";
+        private String f9 = "9";
+        private int f10 = 10;
+        private long f11 = 11;
+        private double f12 = 12;
+        private String f13 = "13";
+        private Integer f14 = 14;
+        private Long f15 = 15L;
+        private Double f16 = 16.0;
+        private boolean f17 = false;
+        private String f18 = "18";
+        private String f19 = "19";
+    }
+
+    public static class Deep {
+        private int level;
+        private String name;
+        private Deep child;
+        private List<Deep> children = new ArrayList<>();
+
+        static Deep of(int depth) {
+            final Deep deep = new Deep();
+            deep.level = depth;
+            deep.name = "level" + depth;
+            if (depth > 1) {
+                deep.child = of(depth - 1);
+                deep.children.add(leaf(depth));
+                deep.children.add(leaf(depth));
+            }
+            return deep;
+        }
+
+        private static Deep leaf(int level) {
+            final Deep leaf = new Deep();
+            leaf.level = level;
+            leaf.name = "leaf" + level;
+            return leaf;
+        }
+    }
+}
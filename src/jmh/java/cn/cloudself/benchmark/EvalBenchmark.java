@@ -0,0 +1,66 @@
+package cn.cloudself.benchmark;
+
+import cn.cloudself.script.JavaScript;
+import cn.cloudself.script.JavaScriptUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单次执行：of与compile，嵌套结果的evalAsMap，BigDecimal, BigInteger变量的转换
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EvalBenchmark {
+    private static final String script = "a + b * c";
+
+    private final Map<String, Object> vars = new HashMap<>();
+    private final Map<String, Object> bigVars = new HashMap<>();
+    private JavaScript.Prepared of;
+    private JavaScript.Prepared compiled;
+    private JavaScript.Prepared nested;
+    private JavaScript.Prepared big;
+
+    @Setup
+    public void setup() {
+        JavaScript.disableLogThreadLocal(true);
+        vars.put("a", 1);
+        vars.put("b", 2.5);
+        vars.put("c", 3);
+        bigVars.put("a", new BigDecimal("12345.6789"));
+        bigVars.put("b", new BigInteger("9876543210"));
+        bigVars.put("c", new BigDecimal("0.001"));
+        of = JavaScriptUtil.of(script);
+        compiled = JavaScriptUtil.compile(script);
+        nested = JavaScriptUtil.of("{id: a, items: [1, 2, {name: 'x', tags: ['p', 'q']}], child: {value: b, list: [c, c, c]}}");
+        big = JavaScriptUtil.of(script);
+    }
+
+    @Benchmark
+    public Double eval() {
+        return of.eval(vars, Double.class);
+    }
+
+    @Benchmark
+    public Double evalCompiled() {
+        return compiled.eval(vars, Double.class);
+    }
+
+    @Benchmark
+    public Map<String, Object> evalAsMapNested() {
+        return nested.evalAsMap(vars);
+    }
+
+    @Benchmark
+    public Double evalBigNumberVars() {
+        return big.eval(bigVars, Double.class);
+    }
+}
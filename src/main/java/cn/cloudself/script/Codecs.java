@@ -0,0 +1,201 @@
+package cn.cloudself.script;
+
+import cn.cloudself.script.util.Ref;
+import org.graalvm.polyglot.Value;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * java与js之间的值转换规则，每个JavaScript实例持有一份，可通过JavaScript.getCodecs()注册自定义类型。
+ * <ul>
+ *     <li>java -> js: 按值的Class查找编码器，每个Class的查找结果(含父类、接口上注册的编码器)只计算一次</li>
+ *     <li>js -> java(无目标类型，如evalAsMap): 先判断js值的种类(JsKind)，再按种类直接取解码器</li>
+ *     <li>js -> java(有目标类型，如evalAsBean的属性): 按目标Class取解码器</li>
+ * </ul>
+ * 注册应在脚本执行之前完成，Bean的转换计划生成后不会感知之后注册的类型解码器。
+ * <pre><code>
+ * javaScript.getCodecs().register(Money.class, m -> m.getCents(), v -> new Money(v.asLong()));
+ * </code></pre>
+ */
+public final class Codecs {
+    /**
+     * js值的种类，按声明顺序判断，例如host对象即使是数字也归为HOST_OBJECT
+     */
+    public enum JsKind {
+        NULL, HOST_OBJECT, PROXY, STRING, BOOLEAN, NUMBER, DATE_TIME, ARRAY, OBJECT, OTHER;
+
+        private static final JsKind[] values = values();
+
+        static JsKind of(Value value) {
+            if (value.isNull()) {
+                return NULL;
+            }
+            if (value.isHostObject()) {
+                return HOST_OBJECT;
+            }
+            if (value.isProxyObject()) {
+                return PROXY;
+            }
+            if (value.isString()) {
+                return STRING;
+            }
+            if (value.isBoolean()) {
+                return BOOLEAN;
+            }
+            if (value.isNumber()) {
+                return NUMBER;
+            }
+            if (value.isDate() || value.isTime()) {
+                return DATE_TIME;
+            }
+            if (value.hasArrayElements()) {
+                return ARRAY;
+            }
+            if (value.hasHashEntries() || value.hasMembers()) {
+                return OBJECT;
+            }
+            return OTHER;
+        }
+    }
+
+    private static final Function<Object, Object> identity = v -> v;
+
+    private final Map<Class<?>, Function<Object, Object>> encoders = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Function<Value, ?>> typedDecoders = new ConcurrentHashMap<>();
+    private volatile ClassValue<Function<Object, Object>> encoderByClass = newEncoderByClass();
+    private volatile Function<Value, Object>[] decoderByKind;
+
+    private Codecs() {
+        //noinspection unchecked
+        decoderByKind = new Function[JsKind.values.length];
+        Arrays.fill(decoderByKind, (Function<Value, Object>) v -> v);
+    }
+
+    /**
+     * @return 包含默认规则的新实例：Ref解包，long范围内的BigDecimal, BigInteger转为double, long；
+     * js的null, string, boolean, number, Date分别转为null, String, Boolean, Number, LocalDate(Time)，host对象以及JsProxy代理还原为原对象
+     */
+    public static Codecs createDefault() {
+        final Codecs codecs = new Codecs();
+        codecs.encode(Ref.class, Ref::getValue);
+        codecs.encode(BigDecimal.class, bigDecimal -> bigDecimal.compareTo(maxLongValueBigDecimalView) < 0 ? bigDecimal.doubleValue() : bigDecimal);
+        codecs.encode(BigInteger.class, bigInteger -> bigInteger.compareTo(maxLongValueBigIntegerView) < 0 ? bigInteger.longValue() : bigInteger);
+        codecs.decode(JsKind.NULL, v -> null);
+        codecs.decode(JsKind.HOST_OBJECT, Value::asHostObject);
+        codecs.decode(JsKind.PROXY, v -> {
+            final Object target = JsProxy.unwrap(v.asProxyObject());
+            return target != null ? target : v;
+        });
+        codecs.decode(JsKind.STRING, Value::asString);
+        codecs.decode(JsKind.BOOLEAN, Value::asBoolean);
+        codecs.decode(JsKind.NUMBER, v -> v.as(Object.class));
+        codecs.decode(JsKind.DATE_TIME, Codecs::dateTime);
+        return codecs;
+    }
+
+    /**
+     * 注册双向转换
+     * @param toJs 传给js前的转换，返回值不会再次转换
+     * @param fromJs 目标类型为type时(如evalAsBean的属性, PreparedBatch的结果类型)的转换，传入的value不为null
+     */
+    public <T> Codecs register(Class<T> type, Function<? super T, Object> toJs, Function<Value, ? extends T> fromJs) {
+        encode(type, toJs);
+        typedDecoders.put(type, fromJs);
+        return this;
+    }
+
+    /**
+     * 注册java -> js的转换，对type的子类同样生效，子类上注册的优先
+     */
+    public <T> Codecs encode(Class<T> type, Function<? super T, Object> toJs) {
+        //noinspection unchecked
+        encoders.put(type, (Function<Object, Object>) toJs);
+        encoderByClass = newEncoderByClass();
+        return this;
+    }
+
+    /**
+     * 替换某一种js值的默认转换，返回Value表示不转换，交由后续的转换器以及数组, 对象的默认处理
+     */
+    public Codecs decode(JsKind kind, Function<Value, Object> fromJs) {
+        final Function<Value, Object>[] copy = decoderByKind.clone();
+        copy[kind.ordinal()] = fromJs;
+        decoderByKind = copy;
+        return this;
+    }
+
+    Object toJs(Object value) {
+        if (value == null) {
+            return null;
+        }
+        return encoderByClass.get(value.getClass()).apply(value);
+    }
+
+    Object fromJs(Value value) {
+        return decoderByKind[JsKind.of(value).ordinal()].apply(value);
+    }
+
+    @Nullable
+    Function<Value, ?> decoderFor(Class<?> type) {
+        return typedDecoders.get(type);
+    }
+
+    private ClassValue<Function<Object, Object>> newEncoderByClass() {
+        return new ClassValue<Function<Object, Object>>() {
+            @Override
+            protected Function<Object, Object> computeValue(Class<?> type) {
+                for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                    final Function<Object, Object> encoder = encoders.get(c);
+                    if (encoder != null) {
+                        return encoder;
+                    }
+                }
+                final Deque<Class<?>> interfaces = new ArrayDeque<>();
+                for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                    interfaces.addAll(Arrays.asList(c.getInterfaces()));
+                }
+                while (!interfaces.isEmpty()) {
+                    final Class<?> i = interfaces.poll();
+                    final Function<Object, Object> encoder = encoders.get(i);
+                    if (encoder != null) {
+                        return encoder;
+                    }
+                    interfaces.addAll(Arrays.asList(i.getInterfaces()));
+                }
+                return identity;
+            }
+        };
+    }
+
+    private static Object dateTime(Value value) {
+        LocalDate date = null;
+        LocalTime time = null;
+        if (value.isDate()) {
+            date = value.asDate();
+        }
+        if (value.isTime()) {
+            time = value.asTime();
+        }
+        if (date != null) {
+            if (time != null) {
+                return LocalDateTime.of(date, time);
+            }
+            return date;
+        }
+        if (time != null) {
+            return time;
+        }
+        return value;
+    }
+
+    private final static BigInteger maxLongValueBigIntegerView = new BigInteger(String.valueOf(Long.MAX_VALUE));
+    private final static BigDecimal maxLongValueBigDecimalView = new BigDecimal(Long.MAX_VALUE);
+}
@@ -1,31 +1,57 @@
 package cn.cloudself.script;
 
 import cn.cloudself.query.QueryProSql;
+import cn.cloudself.script.util.JdbcUtil;
 import cn.cloudself.script.util.LogFactory;
 import cn.cloudself.script.util.SpringUtil;
 import org.intellij.lang.annotations.Language;
 
+import javax.sql.DataSource;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 public class CommonFunctionsForScript {
     public static CommonFunctionsForScript INSTANCE = new CommonFunctionsForScript();
 
-    private static final LogFactory.Log log = LogFactory.getLog(CommonFunctionsForScript.class);
+    /**
+     * 脚本的日志不能丢失，队列满时在调用线程直接输出
+     */
+    private static final LogFactory.Log log = LogFactory.getAsyncLog(CommonFunctionsForScript.class.getName(), LogFactory.AsyncLog.Overflow.CALLER_RUNS);
 
     protected CommonFunctionsForScript() { }
 
+    /**
+     * 异步输出，不等待appender的I/O，js对象在调用线程转为字符串，队列满时同步输出。开启ScriptOutput时写入本次eval的缓冲
+     */
     public void log(Object str) {
+        final EvalScope scope = EvalScope.current();
+        if (scope != null && scope.output != null) {
+            scope.output.log(str);
+            return;
+        }
         log.info(str);
     }
 
+    /**
+     * 开启ScriptOutput时写入本次eval的缓冲
+     */
     public void print(Object obj) {
+        final EvalScope scope = EvalScope.current();
+        if (scope != null && scope.output != null) {
+            scope.output.print(obj);
+            return;
+        }
         System.out.println(obj);
     }
 
+    /**
+     * 类以及单例Bean的查找结果会被缓存，频繁调用的建议使用JavaScript.bindBean预先绑定为全局变量
+     */
     public Object springBean(String interfaceName) throws ClassNotFoundException {
-        final Class<?> clazz = Class.forName(interfaceName);
-        return SpringUtil.getBean(clazz);
+        return SpringUtil.getBean(interfaceName);
     }
 
     public Map<String, Object> queryOne(@Language("SQL") String sql) {
@@ -36,6 +62,74 @@ public class CommonFunctionsForScript {
         return QueryProSql.create(sql).query();
     }
 
+    /**
+     * 参数化查询，使用Spring容器中的DataSource执行PreparedStatement。
+     * 同一次eval(或同一批次)中sql与参数都相同的查询只执行一次，返回同一个对象，不要修改返回的结果
+     * <pre><code>
+     * js: queryOne('select * from user where id = ?', [id])
+     * </code></pre>
+     */
+    public Map<String, Object> queryOne(@Language("SQL") String sql, List<Object> params) {
+        return memoize("queryOne", sql, params, () -> {
+            final List<Map<String, Object>> rows = JdbcUtil.query(SpringUtil.getBean(DataSource.class), sql, params, 1);
+            return rows.isEmpty() ? null : rows.get(0);
+        });
+    }
+
+    /**
+     * 同上
+     */
+    public List<Map<String, Object>> queryAll(@Language("SQL") String sql, List<Object> params) {
+        return memoize("queryAll", sql, params, () -> JdbcUtil.query(SpringUtil.getBean(DataSource.class), sql, params, 0));
+    }
+
+    /**
+     * 流式查询，js端通过for...of逐行遍历，内存中只保留当前的一批(fetchSize)行，只能遍历一次。
+     * 遍历结束或本次eval结束时关闭游标(连接)，不要在eval之外保存返回值
+     * <pre><code>
+     * js: let sum = 0; for (const row of queryStream('select amount from orders where day = ?', [day])) { sum += row.amount }
+     * </code></pre>
+     */
+    public Iterable<Map<String, Object>> queryStream(@Language("SQL") String sql, List<Object> params) {
+        return queryStream(sql, params, 1000);
+    }
+
+    /**
+     * 同上
+     * @param fetchSize 每次从数据库获取的行数
+     */
+    public Iterable<Map<String, Object>> queryStream(@Language("SQL") String sql, List<Object> params, int fetchSize) {
+        final List<Object> paramsCopy = params == null ? null : new ArrayList<>(params);
+        final AtomicBoolean iterated = new AtomicBoolean(false);
+        return () -> {
+            if (!iterated.compareAndSet(false, true)) {
+                throw new IllegalStateException("queryStream的结果只能遍历一次");
+            }
+            final JdbcUtil.Cursor cursor = JdbcUtil.cursor(SpringUtil.getBean(DataSource.class), sql, paramsCopy, fetchSize);
+            // 在本次eval(批量计算时为当前分块)结束时关闭，遍历结束自行关闭后不再持有
+            final EvalScope.Handle handle = EvalScope.currentHandle();
+            if (handle != null) {
+                handle.closeOnExit(cursor);
+                cursor.onClose(() -> handle.closed(cursor));
+            }
+            return cursor;
+        };
+    }
+
+    private static <T> T memoize(String kind, String sql, List<Object> params, Supplier<T> query) {
+        final EvalScope scope = EvalScope.current();
+        if (scope == null) {
+            return query.get();
+        }
+        final List<Object> key = new ArrayList<>();
+        key.add(kind);
+        key.add(sql);
+        if (params != null) {
+            key.addAll(params);
+        }
+        return scope.memoize(key, query);
+    }
+
     private static boolean isPresent(@SuppressWarnings("SameParameterValue") String className) {
         try {
             Class.forName(className, false, CommonFunctionsForScript.class.getClassLoader());
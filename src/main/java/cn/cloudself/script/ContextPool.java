@@ -0,0 +1,315 @@
+package cn.cloudself.script;
+
+import cn.cloudself.script.util.LogFactory;
+import cn.cloudself.script.util.LruCache;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Context池，Context的创建成本远高于短表达式的执行成本，池化后同一个Context会被多次借出。
+ * 归还时会移除本次执行新增的全局变量，无法移除的(如脚本中的var, function声明)会直接关闭该Context。
+ * 这样关闭的Context数量见getDiscardedCount，每个脚本ID只输出一次警告。
+ */
+public class ContextPool implements AutoCloseable {
+    private static final LogFactory.Log log = LogFactory.getLog(ContextPool.class);
+
+    public static class Config {
+        private int minSize = 0;
+        private int maxSize = Runtime.getRuntime().availableProcessors();
+        private long maxIdleMillis = 5 * 60 * 1000;
+        private long borrowTimeoutMillis = 30 * 1000;
+
+        public int getMinSize() {
+            return minSize;
+        }
+
+        /**
+         * 池中最少保留的空闲Context数量，创建池时会预先创建
+         */
+        public Config setMinSize(int minSize) {
+            if (minSize < 0) {
+                throw new IllegalArgumentException("minSize不能小于0: " + minSize);
+            }
+            this.minSize = minSize;
+            return this;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        /**
+         * 同时借出的Context数量上限
+         */
+        public Config setMaxSize(int maxSize) {
+            if (maxSize < 1) {
+                throw new IllegalArgumentException("maxSize不能小于1: " + maxSize);
+            }
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public long getMaxIdleMillis() {
+            return maxIdleMillis;
+        }
+
+        /**
+         * 空闲超过该时间的Context会被关闭(保留minSize个)，小于等于0表示不回收
+         */
+        public Config setMaxIdleMillis(long maxIdleMillis) {
+            this.maxIdleMillis = maxIdleMillis;
+            return this;
+        }
+
+        public long getBorrowTimeoutMillis() {
+            return borrowTimeoutMillis;
+        }
+
+        /**
+         * 池已满时等待空闲Context的最长时间
+         */
+        public Config setBorrowTimeoutMillis(long borrowTimeoutMillis) {
+            this.borrowTimeoutMillis = borrowTimeoutMillis;
+            return this;
+        }
+    }
+
+    static class Entry {
+        final Context context;
+        final Value bindings;
+        /**
+         * 初始化后的全局变量及其值
+         */
+        private final Map<String, Value> baseline = new HashMap<>();
+        /**
+         * 覆盖了内置全局变量(如print)的名称，getMemberKeys中不包含它们
+         */
+        private final Collection<String> globals;
+        private long idleSince;
+        /**
+         * 由JavaScript记录已绑定的Bean的版本
+         */
+        long beansVersion = -1;
+
+        private Entry(Context context, Collection<String> globals) {
+            this.context = context;
+            this.bindings = context.getBindings("js");
+            this.globals = globals;
+            captureBaseline();
+        }
+
+        /**
+         * 以当前的全局变量作为初始状态，重新绑定Bean后调用
+         */
+        void captureBaseline() {
+            baseline.clear();
+            for (String key : bindings.getMemberKeys()) {
+                baseline.put(key, bindings.getMember(key));
+            }
+            for (String key : globals) {
+                final Value value = bindings.getMember(key);
+                if (value != null) {
+                    baseline.put(key, value);
+                }
+            }
+        }
+
+        /**
+         * 还原被覆盖或删除的baseline全局变量(如与公共方法同名的变量)，移除baseline之外的全局变量
+         * @return 是否已恢复到初始状态
+         */
+        private boolean reset() {
+            boolean clean = true;
+            for (Map.Entry<String, Value> initial : baseline.entrySet()) {
+                final Value current = bindings.getMember(initial.getKey());
+                if (current == null || !initial.getValue().equals(current)) {
+                    try {
+                        bindings.putMember(initial.getKey(), initial.getValue());
+                    } catch (UnsupportedOperationException e) {
+                        clean = false;
+                    }
+                }
+            }
+            for (String key : bindings.getMemberKeys()) {
+                if (baseline.containsKey(key)) {
+                    continue;
+                }
+                try {
+                    if (!bindings.removeMember(key)) {
+                        clean = false;
+                    }
+                } catch (UnsupportedOperationException e) {
+                    clean = false;
+                }
+            }
+            return clean;
+        }
+    }
+
+    private final Supplier<Context> factory;
+    private final Collection<String> globals;
+    private final Config config;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<Entry> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger discarded = new AtomicInteger();
+    /**
+     * 已经警告过的脚本ID
+     */
+    private final LruCache<String, Boolean> warned = new LruCache<>(1024, 0);
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
+
+    /**
+     * @param factory 创建并初始化Context(绑定公共方法等)，初始化后的全局变量在归还时会被保留
+     * @param globals factory绑定的全局变量名称，被覆盖时在归还时还原
+     */
+    ContextPool(Supplier<Context> factory, Collection<String> globals, Config config) {
+        if (config.minSize > config.maxSize) {
+            throw new IllegalArgumentException("minSize(" + config.minSize + ")不能大于maxSize(" + config.maxSize + ")");
+        }
+        this.factory = factory;
+        this.globals = globals;
+        this.config = config;
+        this.permits = new Semaphore(config.maxSize, true);
+        for (int i = 0; i < config.minSize; i++) {
+            idle.offerLast(create());
+        }
+        if (config.maxIdleMillis > 0) {
+            final long period = Math.max(1000, config.maxIdleMillis / 2);
+            this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "script-kit-context-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.evictor.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            this.evictor = null;
+        }
+    }
+
+    Entry borrow() {
+        if (closed) {
+            throw new IllegalStateException("ContextPool已关闭");
+        }
+        try {
+            if (!permits.tryAcquire(config.borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new RuntimeException("获取Context超时(" + config.borrowTimeoutMillis + "ms)，当前池大小: " + config.maxSize);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("获取Context时被中断", e);
+        }
+        try {
+            final Entry entry = idle.pollFirst();
+            return entry != null ? entry : create();
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @param reusable 执行过程中出现异常等情况时传false，直接关闭该Context
+     * @param scriptId 最后执行的脚本ID，该脚本留下了无法清除的全局变量时用于警告
+     */
+    void release(Entry entry, boolean reusable, @Nullable String scriptId) {
+        try {
+            if (closed || !reusable) {
+                destroy(entry);
+            } else if (entry.reset()) {
+                entry.idleSince = System.currentTimeMillis();
+                idle.offerFirst(entry);
+            } else {
+                discarded.incrementAndGet();
+                if (scriptId != null) {
+                    warned.get(scriptId, id -> {
+                        log.warn("脚本{}声明了顶层的var或function，无法清除，Context无法复用，可改为let, const或表达式", id);
+                        return Boolean.TRUE;
+                    });
+                }
+                destroy(entry);
+            }
+        } catch (RuntimeException e) {
+            log.warn("归还Context失败", e);
+            destroy(entry);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * @return 同时借出的Context数量上限
+     */
+    public int getMaxSize() {
+        return config.maxSize;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return config.maxSize - permits.availablePermits();
+    }
+
+    public int getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * @return 因脚本留下无法清除的全局变量(顶层的var, function声明)而被关闭的Context数量
+     */
+    public int getDiscardedCount() {
+        return discarded.get();
+    }
+
+    private Entry create() {
+        final Entry entry = new Entry(factory.get(), globals);
+        created.incrementAndGet();
+        return entry;
+    }
+
+    private void destroy(Entry entry) {
+        try {
+            entry.context.close();
+        } catch (RuntimeException e) {
+            log.warn("关闭Context失败", e);
+        }
+    }
+
+    private void evict() {
+        final long deadline = System.currentTimeMillis() - config.maxIdleMillis;
+        while (idle.size() > config.minSize) {
+            final Entry entry = idle.pollLast();
+            if (entry == null) {
+                return;
+            }
+            if (entry.idleSince > deadline) {
+                idle.offerLast(entry);
+                return;
+            }
+            destroy(entry);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            destroy(entry);
+        }
+    }
+}
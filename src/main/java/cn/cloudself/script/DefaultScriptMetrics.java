@@ -0,0 +1,235 @@
+package cn.cloudself.script;
+
+import cn.cloudself.script.util.LruCache;
+import org.jetbrains.annotations.Nullable;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 内存中的计数以及耗时分布(按2的幂分桶，分位数为桶的上界)，按阶段以及按脚本ID分别汇总
+ * <pre><code>
+ * final DefaultScriptMetrics metrics = new DefaultScriptMetrics().registerMBean("default");
+ * javaScript.setMetrics(metrics);
+ * </code></pre>
+ */
+public class DefaultScriptMetrics implements ScriptMetrics, ScriptMetricsMXBean {
+    private static final Phase[] phases = Phase.values();
+
+    private final Timer[] byPhase = newTimers();
+    private final LruCache<String, Timer[]> byScript;
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    public DefaultScriptMetrics() {
+        this(1024);
+    }
+
+    /**
+     * @param maxScripts 按脚本汇总的最大脚本数，超出时淘汰最久未执行的
+     */
+    public DefaultScriptMetrics(int maxScripts) {
+        this.byScript = new LruCache<>(maxScripts, 0);
+    }
+
+    /**
+     * 注册到平台MBeanServer，ObjectName为 cn.cloudself.script:type=ScriptMetrics,name=[name]
+     */
+    public DefaultScriptMetrics registerMBean(String name) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName("cn.cloudself.script:type=ScriptMetrics,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            throw new RuntimeException("注册MBean失败: " + name, e);
+        }
+        return this;
+    }
+
+    @Override
+    public void record(Phase phase, @Nullable String scriptId, long nanos, int count) {
+        byPhase[phase.ordinal()].record(nanos, count);
+        if (scriptId != null) {
+            byScript.get(scriptId, id -> newTimers())[phase.ordinal()].record(nanos, count);
+        }
+    }
+
+    @Override
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public Snapshot getPhase(Phase phase) {
+        return byPhase[phase.ordinal()].snapshot();
+    }
+
+    @Override
+    public Map<String, Snapshot> getPhases() {
+        final Map<String, Snapshot> result = new TreeMap<>();
+        for (Phase phase : phases) {
+            result.put(phase.name(), getPhase(phase));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Snapshot> getScripts() {
+        final Map<String, Snapshot> result = new TreeMap<>();
+        byScript.forEach((scriptId, timers) -> {
+            for (Phase phase : phases) {
+                final Snapshot snapshot = timers[phase.ordinal()].snapshot();
+                if (snapshot.getCount() > 0) {
+                    result.put(scriptId + "/" + phase.name(), snapshot);
+                }
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        final Map<String, Long> result = new TreeMap<>();
+        gauges.forEach((name, value) -> result.put(name, value.getAsLong()));
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        for (Timer timer : byPhase) {
+            timer.reset();
+        }
+        byScript.clear();
+    }
+
+    private static Timer[] newTimers() {
+        final Timer[] timers = new Timer[phases.length];
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new Timer();
+        }
+        return timers;
+    }
+
+    private static final class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder items = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        /**
+         * 第i个桶记录[2^i, 2^(i+1))纳秒的次数
+         */
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        private void record(long nanos, int n) {
+            count.increment();
+            items.add(n);
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(1, nanos)));
+        }
+
+        private void reset() {
+            count.reset();
+            items.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+        }
+
+        private Snapshot snapshot() {
+            final long[] counts = new long[buckets.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            return new Snapshot(count.sum(), items.sum(), totalNanos.sum(), maxNanos.get(),
+                    percentile(counts, total, 0.5), percentile(counts, total, 0.99));
+        }
+
+        private static long percentile(long[] counts, long total, double p) {
+            final long rank = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * 某一阶段的汇总，时间单位为纳秒
+     */
+    public static final class Snapshot {
+        private final long count;
+        private final long items;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long p50Nanos;
+        private final long p99Nanos;
+
+        private Snapshot(long count, long items, long totalNanos, long maxNanos, long p50Nanos, long p99Nanos) {
+            this.count = count;
+            this.items = items;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return 处理的数量，BATCH为行数
+         */
+        public long getItems() {
+            return items;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        /**
+         * @return 每秒处理的数量，BATCH为每秒行数
+         */
+        public double getItemsPerSecond() {
+            return totalNanos == 0 ? 0 : items * 1e9 / totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{count=" + count + ", items=" + items + ", totalNanos=" + totalNanos + ", maxNanos=" + maxNanos
+                    + ", p50Nanos=" + p50Nanos + ", p99Nanos=" + p99Nanos + "}";
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package cn.cloudself.script;
+
+import cn.cloudself.script.util.LogFactory;
+import cn.cloudself.script.util.LruCache;
+import org.graalvm.polyglot.Source;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 脚本执行日志。
+ * <ul>
+ *     <li>每个Source以脚本ID(内容的hash，同时作为Source的name)命名，脚本内容只在第一次执行时输出一次</li>
+ *     <li>每次执行只记录脚本ID、耗时以及结果数量，按采样率抽样，不会调用结果的toString</li>
+ *     <li>执行记录通过LogFactory.AsyncLog输出，队列满时丢弃</li>
+ * </ul>
+ * 可通过系统属性 script-kit.eval-log.level(OFF, TRACE, DEBUG, INFO，默认DEBUG), script-kit.eval-log.sample-rate(0~1，默认1) 调整，
+ * 默认级别下，日志框架未开启CommonFunctionsForScript的DEBUG时不会记录也不会占用异步队列。
+ * JavaScript.disableLogThreadLocal(true)仍然有效
+ */
+public final class EvalLog {
+    public enum Level {
+        OFF, TRACE, DEBUG, INFO
+    }
+
+    private static final LogFactory.Log log = LogFactory.getLog(CommonFunctionsForScript.class);
+    private static final LogFactory.AsyncLog asyncLog = LogFactory.getAsyncLog(CommonFunctionsForScript.class.getName(), LogFactory.AsyncLog.Overflow.DROP);
+    private static final LruCache<String, Boolean> registered = new LruCache<>(4096, 0);
+    private static volatile Level level = Level.valueOf(System.getProperty("script-kit.eval-log.level", "DEBUG").toUpperCase());
+    private static volatile double sampleRate = Double.parseDouble(System.getProperty("script-kit.eval-log.sample-rate", "1"));
+
+    private EvalLog() {
+    }
+
+    public static void setLevel(Level level) {
+        EvalLog.level = level;
+    }
+
+    /**
+     * @param sampleRate 0~1，0表示不记录每次执行，脚本内容仍会输出一次
+     */
+    public static void setSampleRate(double sampleRate) {
+        EvalLog.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return 因队列已满被丢弃的执行记录数
+     */
+    public static long getDroppedCount() {
+        return asyncLog.getDroppedCount();
+    }
+
+    /**
+     * @return 脚本ID，相同的脚本在不同进程中也相同
+     */
+    static String scriptId(CharSequence script) {
+        // FNV-1a 64
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < script.length(); i++) {
+            hash ^= script.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return "js-" + Long.toHexString(hash);
+    }
+
+    /**
+     * 脚本ID作为Source的name，错误堆栈中的位置也会带上该ID
+     */
+    static Source source(String script, boolean cached) {
+        return Source.newBuilder("js", script, scriptId(script)).cached(cached).buildLiteral();
+    }
+
+    /**
+     * 执行前调用，脚本第一次执行时输出其内容
+     * @return 开始时间，未启用或未被采样时为-1
+     */
+    static long start(Source source) {
+        if (!enabled() || JavaScript.logDisabled()) {
+            return -1;
+        }
+        registered.get(source.getName(), id -> {
+            write(log, "register script {}:\n{}", id, source.getCharacters());
+            return Boolean.TRUE;
+        });
+        final double rate = sampleRate;
+        if (rate < 1 && (rate <= 0 || ThreadLocalRandom.current().nextDouble() >= rate)) {
+            return -1;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * 执行后调用，结果数量在当前线程计算，消息在后台线程格式化并输出
+     * @param start start(source)的返回值
+     * @param result 为Map, Collection, 数组, 字符串时记录其长度
+     */
+    static void end(Source source, String kind, long start, Object result) {
+        if (start < 0) {
+            return;
+        }
+        final long durationMicros = (System.nanoTime() - start) / 1000;
+        final int size = size(result);
+        if (size < 0) {
+            write(asyncLog, "eval script={} kind={} durationMicros={}", source.getName(), kind, durationMicros);
+        } else {
+            write(asyncLog, "eval script={} kind={} durationMicros={} resultSize={}", source.getName(), kind, durationMicros, size);
+        }
+    }
+
+    private static int size(Object result) {
+        if (result instanceof Map) {
+            return ((Map<?, ?>) result).size();
+        }
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        if (result instanceof CharSequence) {
+            return ((CharSequence) result).length();
+        }
+        if (result != null && result.getClass().isArray()) {
+            return Array.getLength(result);
+        }
+        return -1;
+    }
+
+    private static boolean enabled() {
+        switch (level) {
+            case TRACE:
+                return log.isTraceEnabled();
+            case DEBUG:
+                return log.isDebugEnabled();
+            case INFO:
+                return log.isInfoEnabled();
+            default:
+                return false;
+        }
+    }
+
+    private static void write(LogFactory.Log target, String format, Object... args) {
+        switch (level) {
+            case TRACE:
+                target.trace(format, args);
+                break;
+            case DEBUG:
+                target.debug(format, args);
+                break;
+            case INFO:
+                target.info(format, args);
+                break;
+            default:
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package cn.cloudself.script;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+/**
+ * 一次eval(或一个批次)期间有效的状态，通过ThreadLocal提供给CommonFunctionsForScript等host方法。
+ * 嵌套执行时沿用外层的scope，并行批量计算时各工作线程进入同一个scope。
+ * 游标等资源注册在当前线程的Handle上，退出该Handle时关闭，批量计算每个分块进入一次，未遍历完的游标不会占用连接到整个批次结束。
+ */
+final class EvalScope {
+    private static final ThreadLocal<Handle> current = new ThreadLocal<>();
+
+    private final ConcurrentMap<List<Object>, FutureTask<Object>> memo = new ConcurrentHashMap<>();
+    /**
+     * print, log的输出缓冲，未开启时为null
+     */
+    @Nullable
+    final ScriptOutput output = ScriptOutput.forNewScope();
+
+    /**
+     * 当前线程已在scope中时沿用，否则新建
+     */
+    static Handle open() {
+        final Handle handle = current.get();
+        return handle != null ? enter(handle.scope, false) : enter(new EvalScope(), true);
+    }
+
+    /**
+     * 在当前线程进入指定的scope，用于并行计算的工作线程以及分块计算，退出时不会关闭scope
+     */
+    static Handle enter(EvalScope scope) {
+        return enter(scope, false);
+    }
+
+    private static Handle enter(EvalScope scope, boolean owner) {
+        final Handle handle = new Handle(scope, current.get(), owner);
+        current.set(handle);
+        return handle;
+    }
+
+    @Nullable
+    static EvalScope current() {
+        final Handle handle = current.get();
+        return handle == null ? null : handle.scope;
+    }
+
+    /**
+     * @return 当前线程最内层的Handle，不在scope中时为null
+     */
+    @Nullable
+    static Handle currentHandle() {
+        return current.get();
+    }
+
+    /**
+     * 同一scope内key相同时只调用一次loader，返回同一个对象。
+     * 并行批量计算时其他线程等待正在执行的loader，loader在map之外执行；loader抛出异常时不缓存
+     * @param key 需实现equals，如Arrays.asList("queryAll", sql, params)
+     */
+    <T> T memoize(List<Object> key, Supplier<T> loader) {
+        FutureTask<Object> task = memo.get(key);
+        if (task == null) {
+            final FutureTask<Object> created = new FutureTask<>(loader::get);
+            task = memo.putIfAbsent(key, created);
+            if (task == null) {
+                task = created;
+                created.run();
+            }
+        }
+        try {
+            //noinspection unchecked
+            return (T) task.get();
+        } catch (ExecutionException e) {
+            memo.remove(key, task);
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待查询结果时被中断", e);
+        }
+    }
+
+    /**
+     * scope结束时调用，清除查询缓存并写出输出
+     */
+    void close() {
+        memo.clear();
+        if (output != null) {
+            output.close();
+        }
+    }
+
+    static final class Handle implements AutoCloseable {
+        final EvalScope scope;
+        private final Handle previous;
+        private final boolean owner;
+        private final Deque<AutoCloseable> closeables = new ConcurrentLinkedDeque<>();
+
+        private Handle(EvalScope scope, Handle previous, boolean owner) {
+            this.scope = scope;
+            this.previous = previous;
+            this.owner = owner;
+        }
+
+        /**
+         * 退出该Handle时关闭，如未遍历完的游标
+         */
+        void closeOnExit(AutoCloseable closeable) {
+            closeables.push(closeable);
+        }
+
+        /**
+         * 资源已自行关闭(如游标遍历结束)，不再持有
+         */
+        void closed(AutoCloseable closeable) {
+            closeables.removeFirstOccurrence(closeable);
+        }
+
+        /**
+         * 恢复之前的Handle，按注册的相反顺序关闭资源，由open()新建的scope在此关闭。
+         * 第一个异常会在其他资源关闭后抛出
+         */
+        @Override
+        public void close() {
+            if (previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+            RuntimeException error = null;
+            AutoCloseable closeable;
+            while ((closeable = closeables.poll()) != null) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    if (error == null) {
+                        error = e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+                    } else {
+                        error.addSuppressed(e);
+                    }
+                }
+            }
+            if (owner) {
+                scope.close();
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+}
@@ -1,25 +1,36 @@
 package cn.cloudself.script;
 
-import cn.cloudself.script.util.LogFactory;
-import cn.cloudself.script.util.Ref;
+import cn.cloudself.script.util.LruCache;
+import cn.cloudself.script.util.SpringUtil;
 import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.TypeLiteral;
 import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.Proxy;
+import org.graalvm.polyglot.proxy.ProxyExecutable;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.math.BigDecimal;
-import java.math.BigInteger;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
-public class JavaScript {
+public class JavaScript implements AutoCloseable {
 
     public static String JavaFunctionName = "Jv_FN";
     public static boolean doesRuntimeCompilationSupported = false;
@@ -32,30 +43,247 @@ public class JavaScript {
         disableLog.set(disable);
     }
 
-    private static final LogFactory.Log log = LogFactory.getLog(CommonFunctionsForScript.class);
-
+    /**
+     * 所有Context共享同一个Engine，这样Source(cached)解析出的AST以及JIT编译结果可以在多次eval之间复用
+     */
+    private final Engine engine = Engine
+            .newBuilder()
+            .option("engine.WarnInterpreterOnly", doesRuntimeCompilationSupported + "")
+            .build();
     private final Context.Builder builder = Context
             .newBuilder()
+            .engine(engine)
             .allowAllAccess(true)
-            .option("js.foreign-object-prototype", "true")
-            .option("engine.WarnInterpreterOnly", doesRuntimeCompilationSupported + "");
+            .option("js.foreign-object-prototype", "true");
     private final Object functions;
-    private final String functionsHelper;
+    /**
+     * 导出到js全局的方法名，functions的public非静态方法(含继承的)，不含Object的方法
+     */
+    private final String[] functionNames;
+    private final ContextPool pool;
+    private final Map<String, Class<?>> beans = new ConcurrentHashMap<>();
+    private final AtomicLong beansModCount = new AtomicLong();
+    @Nullable
+    private volatile ScriptMetrics metrics;
+    final Codecs codecs = Codecs.createDefault();
+    final ResultDecoder resultDecoder = new ResultDecoder(codecs, Collections.emptyList());
 
     /**
      * @param functions 公共方法 参考CommonFunctionsForScript，也可以继承或扩展该类。
      */
     public JavaScript(Object functions) {
+        this(functions, null);
+    }
+
+    /**
+     * @param functions 公共方法 参考CommonFunctionsForScript，也可以继承或扩展该类。
+     * @param poolConfig 不为null时启用Context池，执行时从池中借出Context而不是每次新建。
+     *                   池化模式下脚本会被包裹在一个块中执行，顶层的let, const不会泄露到下一次执行，
+     *                   顶层的var, function声明无法清除，使用了它们的Context归还时会被直接关闭。
+     */
+    public JavaScript(Object functions, @Nullable ContextPool.Config poolConfig) {
         this.functions = functions;
-        this.functionsHelper = Arrays.stream(functions.getClass().getDeclaredMethods())
-            .map(jf -> "const " + jf.getName() + "=s=>" + JavaFunctionName + "." + jf.getName() + "(s);")
-            .collect(Collectors.joining());
+        this.functionNames = Arrays.stream(functions.getClass().getMethods())
+                .filter(method -> method.getDeclaringClass() != Object.class && !Modifier.isStatic(method.getModifiers()))
+                .map(Method::getName)
+                .distinct()
+                .toArray(String[]::new);
+        this.pool = poolConfig == null ? null : new ContextPool(this::newContext, globalNames(), poolConfig);
+    }
+
+    /**
+     * @return Context池，未启用时为null
+     */
+    @Nullable
+    public ContextPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return 该实例的类型转换规则，可注册自定义类型，需在执行脚本前完成
+     */
+    public Codecs getCodecs() {
+        return codecs;
+    }
+
+    /**
+     * 同JsProxy.of(value)，代理中的值按该实例的getCodecs()转换
+     */
+    public Object proxy(Object value) {
+        return JsProxy.of(value, codecs, resultDecoder);
+    }
+
+    /**
+     * 记录各阶段耗时，并注册Context池的瞬时值(启用池时)，null表示不记录
+     * <pre><code>
+     * javaScript.setMetrics(new DefaultScriptMetrics().registerMBean("default"));
+     * </code></pre>
+     */
+    public JavaScript setMetrics(@Nullable ScriptMetrics metrics) {
+        if (metrics != null && pool != null) {
+            metrics.gauge("pool.idle", pool::getIdleCount);
+            metrics.gauge("pool.active", pool::getActiveCount);
+            metrics.gauge("pool.created", pool::getCreatedCount);
+            metrics.gauge("pool.discarded", pool::getDiscardedCount);
+        }
+        this.metrics = metrics;
+        return this;
+    }
+
+    @Nullable
+    public ScriptMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 记录从start到现在的耗时
+     * @param start 上一次lap的返回值，未设置metrics时为0
+     * @return 现在的时间，未设置metrics时为0
+     */
+    private static long lap(@Nullable ScriptMetrics metrics, ScriptMetrics.Phase phase, @Nullable Source source, long start, int count) {
+        if (metrics == null) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        metrics.record(phase, source == null ? null : source.getName(), now - start, count);
+        return now;
+    }
+
+    private static long now(@Nullable ScriptMetrics metrics) {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * 创建Context时将Spring Bean绑定为全局变量，脚本中可直接使用，不需要每次调用springBean查找。
+     * ApplicationContext刷新后，池中的Context会在下次借出时重新绑定
+     * <pre><code>
+     * javaScript.bindBean("orderService", OrderService.class); // js: orderService.find(id)
+     * </code></pre>
+     */
+    public JavaScript bindBean(String globalName, Class<?> beanType) {
+        beans.put(globalName, beanType);
+        beansModCount.incrementAndGet();
+        return this;
+    }
+
+    private List<String> globalNames() {
+        final List<String> names = new ArrayList<>(Arrays.asList(functionNames));
+        names.add(JavaFunctionName);
+        return names;
+    }
+
+    private Context newContext() {
+        final Context context = builder.build();
+        final Value bindings = context.getBindings("js");
+        bindings.putMember(JavaFunctionName, functions);
+        // 直接绑定host方法，参数个数、可变参数以及重载由host调用自行匹配，不经过js包装函数
+        final Value jvFn = bindings.getMember(JavaFunctionName);
+        for (String name : functionNames) {
+            bindings.putMember(name, jvFn.getMember(name));
+        }
+        // 在池记录baseline之前绑定，归还时不会被清除
+        bindBeans(bindings);
+        return context;
+    }
+
+    private void bindBeans(Value bindings) {
+        for (Map.Entry<String, Class<?>> bean : beans.entrySet()) {
+            bindings.putMember(bean.getKey(), SpringUtil.getBean(bean.getValue()));
+        }
+    }
+
+    /**
+     * 两者均只增不减，和可以表示Bean绑定的版本
+     */
+    private long beansVersion() {
+        return SpringUtil.getVersion() + beansModCount.get();
+    }
+
+    /**
+     * 一次执行期间独占的Context，关闭时归还到池中，未启用池时直接关闭Context
+     */
+    final class Lease implements AutoCloseable {
+        final Context context;
+        final Value bindings;
+        private final ContextPool.Entry entry;
+        private final String scriptId;
+        private boolean reusable = true;
+
+        private Lease(ContextPool.Entry entry, String scriptId) {
+            this.entry = entry;
+            this.scriptId = scriptId;
+            this.context = entry.context;
+            this.bindings = entry.bindings;
+        }
+
+        private Lease(Context context) {
+            this.entry = null;
+            this.scriptId = null;
+            this.context = context;
+            this.bindings = context.getBindings("js");
+        }
+
+        /**
+         * 执行出错后调用，该Context不再归还到池中
+         */
+        void discard() {
+            reusable = false;
+        }
+
+        @Override
+        public void close() {
+            if (entry != null) {
+                pool.release(entry, reusable, scriptId);
+            } else {
+                context.close();
+            }
+        }
+    }
+
+    /**
+     * @param source 将要执行的脚本，归还时用于定位留下了无法清除的全局变量的脚本
+     */
+    Lease lease(Source source) {
+        final ScriptMetrics metrics = this.metrics;
+        final long start = now(metrics);
+        final Lease lease = borrow(source.getName());
+        lap(metrics, ScriptMetrics.Phase.LEASE, null, start, 1);
+        return lease;
+    }
+
+    private Lease borrow(String scriptId) {
+        if (pool == null) {
+            return new Lease(newContext());
+        }
+        final ContextPool.Entry entry = pool.borrow();
+        // 未使用bindBean时不访问SpringUtil，spring是可选依赖
+        if (!beans.isEmpty()) {
+            final long version = beansVersion();
+            if (entry.beansVersion != version) {
+                try {
+                    bindBeans(entry.bindings);
+                } catch (RuntimeException e) {
+                    pool.release(entry, false, scriptId);
+                    throw e;
+                }
+                // 新增的Bean名称以及新的Bean实例在归还时保留
+                entry.captureBaseline();
+                entry.beansVersion = version;
+            }
+        }
+        return new Lease(entry, scriptId);
     }
 
     public class PreparedBatch {
         private final String sharedScript;
         private final String calcStatement;
         private final String resultExpression;
+        /**
+         * 按varNames(有序)缓存生成的脚本，相同结构的批次复用已解析、编译过的代码。
+         * 脚本执行后得到一个处理一批数据的js函数，同一个Context中可对多个分块重复调用。
+         */
+        private final LruCache<List<String>, Source> sourceByVarNames = new LruCache<>(64, 0);
+        private final LruCache<List<String>, Source> columnarSourceByVarNames = new LruCache<>(64, 0);
 
         private PreparedBatch(String sharedScript, String calcStatement, String resultExpression) {
             this.sharedScript = sharedScript;
@@ -63,6 +291,13 @@ public class JavaScript {
             this.resultExpression = resultExpression;
         }
 
+        /**
+         * 按varNames缓存的生成脚本(evalBatch, evalBatchParallel, evalBatchIterator使用)，可用于查看命中、未命中次数
+         */
+        public LruCache<List<String>, Source> getSourceCache() {
+            return sourceByVarNames;
+        }
+
         public <T> List<T> evalBatch(Iterable<String> varNames, Iterable<? extends Iterator<? extends Map.Entry<String, ?>>> varsBatch) {
             return evalBatch(varNames, varsBatch, null);
         }
@@ -80,9 +315,240 @@ public class JavaScript {
                 Iterable<? extends Iterator<? extends Map.Entry<String, ?>>> varsBatch,
                 TypeLiteral<T> resultType
         ) {
+            final Source source = source(varNames);
+            final ScriptMetrics metrics = JavaScript.this.metrics;
+            final long bindStart = now(metrics);
+            final List<Map<String, Object>> varsBatchConverted = StreamSupport.stream(varsBatch.spliterator(), false)
+                    .map(JavaScript.this::toJsRow)
+                    .collect(Collectors.toList());
+            lap(metrics, ScriptMetrics.Phase.BIND, source, bindStart, varsBatchConverted.size());
+
+            try (final EvalScope.Handle ignored = EvalScope.open(); final Lease lease = lease(source)) {
+                try {
+                    final long start = EvalLog.start(source);
+                    final long batchStart = now(metrics);
+                    final List<T> results = calc(lease.context.eval(source), varsBatchConverted, resultType);
+                    lap(metrics, ScriptMetrics.Phase.BATCH, source, batchStart, results.size());
+                    EvalLog.end(source, "batch", start, results);
+                    return results;
+                } catch (RuntimeException e) {
+                    lease.discard();
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * 流式批量计算，输入按chunkSize分块，在同一个Context中逐块计算，输入输出都不会整体驻留内存。
+         * 返回的Stream占用一个Context，需消费完或调用close()归还。
+         *
+         * @param varNames a b c
+         * @param varsBatch 每行的变量 map.entrySet().iterator()
+         * @param chunkSize 每次送入js计算的行数
+         * @param resultType <pre><code>new TypeLiteral&lt;Map&lt;String, Object>>() { }</code></pre>
+         */
+        public <T> Stream<T> evalBatchStream(
+                Iterable<String> varNames,
+                Stream<? extends Iterator<? extends Map.Entry<String, ?>>> varsBatch,
+                int chunkSize,
+                TypeLiteral<T> resultType
+        ) {
+            final BatchIterator<T> iterator = evalBatchIterator(varNames, varsBatch.iterator(), chunkSize, resultType);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                    .onClose(iterator::close)
+                    .onClose(varsBatch::close);
+        }
+
+        /**
+         * 同evalBatchStream，返回的迭代器在遍历结束或出错时自动归还Context，提前结束遍历时需调用close()
+         */
+        public <T> BatchIterator<T> evalBatchIterator(
+                Iterable<String> varNames,
+                Iterator<? extends Iterator<? extends Map.Entry<String, ?>>> varsBatch,
+                int chunkSize,
+                TypeLiteral<T> resultType
+        ) {
+            if (chunkSize <= 0) {
+                throw new IllegalArgumentException("chunkSize必须大于0");
+            }
+            return new BatchIterator<>(source(varNames), varsBatch, chunkSize, resultType);
+        }
+
+        /**
+         * 并行批量计算，输入按partitionSize分区，在ForkJoinPool中并行计算，每个worker使用各自的Context，结果按输入顺序合并。
+         * 启用了Context池时，worker数不超过池的maxSize，实际并行度为parallelism与maxSize中的较小值；
+         * 池同时被其他执行占用时，worker仍可能等待Context直到borrowTimeoutMillis。
+         *
+         * @param parallelism 并行度
+         * @param partitionSize 每个分区的行数
+         */
+        public <T> List<T> evalBatchParallel(
+                Iterable<String> varNames,
+                Iterable<? extends Iterator<? extends Map.Entry<String, ?>>> varsBatch,
+                int parallelism,
+                int partitionSize,
+                TypeLiteral<T> resultType
+        ) {
+            final ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+            try {
+                return evalBatchParallel(varNames, varsBatch, forkJoinPool, partitionSize, resultType);
+            } finally {
+                forkJoinPool.shutdown();
+            }
+        }
+
+        /**
+         * 同上，使用调用方提供的ForkJoinPool
+         */
+        public <T> List<T> evalBatchParallel(
+                Iterable<String> varNames,
+                Iterable<? extends Iterator<? extends Map.Entry<String, ?>>> varsBatch,
+                ForkJoinPool forkJoinPool,
+                int partitionSize,
+                TypeLiteral<T> resultType
+        ) {
+            if (partitionSize <= 0) {
+                throw new IllegalArgumentException("partitionSize必须大于0");
+            }
+            final Source source = source(varNames);
+            final List<Iterator<? extends Map.Entry<String, ?>>> rows = new ArrayList<>();
+            for (Iterator<? extends Map.Entry<String, ?>> row : varsBatch) {
+                rows.add(row);
+            }
+            final Object[] results = new Object[rows.size()];
+            final int partitionCount = (rows.size() + partitionSize - 1) / partitionSize;
+            final long start = EvalLog.start(source);
+            final ScriptMetrics metrics = JavaScript.this.metrics;
+            final long batchStart = now(metrics);
+
+            // 每个worker在本次计算中独占一个Context，依次领取分区直到全部算完，所有worker共用同一个EvalScope。
+            // worker数不超过池的maxSize，否则多出的worker会一直等待Context直到超时
+            final int workerCount = Math.min(Math.min(forkJoinPool.getParallelism(), partitionCount), pool == null ? Integer.MAX_VALUE : pool.getMaxSize());
+            final AtomicInteger nextPartition = new AtomicInteger();
+            final EvalScope.Handle scope = EvalScope.open();
+            try {
+                forkJoinPool.submit(() -> IntStream.range(0, workerCount).parallel().forEach(worker -> {
+                    try (final EvalScope.Handle ignored = EvalScope.enter(scope.scope); final Lease lease = lease(source)) {
+                        try {
+                            final Value calcFunction = lease.context.eval(source);
+                            int partition;
+                            while ((partition = nextPartition.getAndIncrement()) < partitionCount) {
+                                final int from = partition * partitionSize;
+                                final int to = Math.min(rows.size(), from + partitionSize);
+                                final List<Map<String, Object>> chunk = new ArrayList<>(to - from);
+                                for (int i = from; i < to; i++) {
+                                    chunk.add(toJsRow(rows.get(i)));
+                                }
+                                // 每个分区单独进入，分区中未遍历完的游标在分区结束时关闭
+                                try (final EvalScope.Handle ignoredPartition = EvalScope.enter(scope.scope)) {
+                                    final List<T> chunkResults = calc(calcFunction, chunk, resultType);
+                                    for (int i = 0; i < chunkResults.size(); i++) {
+                                        results[from + i] = chunkResults.get(i);
+                                    }
+                                }
+                            }
+                        } catch (RuntimeException e) {
+                            // 其他worker不再领取新的分区
+                            nextPartition.set(partitionCount);
+                            lease.discard();
+                            throw e;
+                        }
+                    }
+                })).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("并行计算被中断", e);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new RuntimeException(cause);
+            } finally {
+                scope.close();
+            }
+            lap(metrics, ScriptMetrics.Phase.BATCH, source, batchStart, results.length);
+            EvalLog.end(source, "parallel", start, results);
+            //noinspection unchecked
+            return new ArrayList<>((List<T>) Arrays.asList(results));
+        }
+
+        /**
+         * 列式批量计算，每个变量一列，结果直接写入results，没有逐行的Map以及装箱，适合大量数值计算。
+         * 例如 ofBatch("a * b").evalColumns(Arrays.asList("a", "b"), new Object[]{ new double[]{1, 2}, new long[]{3, 4} }, new double[2])
+         *
+         * @param varNames a b c
+         * @param columns 与varNames一一对应的列，double[], long[], int[], String[]等数组，长度不小于results
+         * @param results 结果数组，行数等于其长度
+         */
+        public void evalColumns(List<String> varNames, Object[] columns, double[] results) {
+            evalColumns(varNames, columns, results, results.length);
+        }
+
+        /**
+         * 同上，结果必须为整数
+         */
+        public void evalColumns(List<String> varNames, Object[] columns, long[] results) {
+            evalColumns(varNames, columns, results, results.length);
+        }
+
+        /**
+         * 同上，结果为任意对象，不做类型转换
+         */
+        public void evalColumns(List<String> varNames, Object[] columns, Object[] results) {
+            evalColumns(varNames, columns, results, results.length);
+        }
+
+        private void evalColumns(List<String> varNames, Object[] columns, Object results, int size) {
+            if (columns.length != varNames.size()) {
+                throw new IllegalArgumentException("columns的数量(" + columns.length + ")与varNames的数量(" + varNames.size() + ")不一致");
+            }
+            for (int i = 0; i < columns.length; i++) {
+                final Object column = columns[i];
+                if (column == null || !column.getClass().isArray() || Array.getLength(column) < size) {
+                    throw new IllegalArgumentException("列 " + varNames.get(i) + " 必须是长度不小于" + size + "的数组");
+                }
+            }
+            final Source source = columnarSourceByVarNames.get(new ArrayList<>(varNames), names -> createSource(names, true));
+            try (final EvalScope.Handle ignored = EvalScope.open(); final Lease lease = lease(source)) {
+                try {
+                    final long start = EvalLog.start(source);
+                    final ScriptMetrics metrics = JavaScript.this.metrics;
+                    final long batchStart = now(metrics);
+                    lease.context.eval(source).executeVoid(columns, size, results);
+                    lap(metrics, ScriptMetrics.Phase.BATCH, source, batchStart, size);
+                    EvalLog.end(source, "columns", start, results);
+                } catch (RuntimeException e) {
+                    lease.discard();
+                    throw e;
+                }
+            }
+        }
+
+        private <T> List<T> calc(Value calcFunction, List<Map<String, Object>> varsBatch, TypeLiteral<T> resultType) {
+            final Value results = calcFunction.execute(varsBatch);
+            //noinspection unchecked
+            return (List<T>) (resultType == null ? resultDecoder.decodeList(results) : resultDecoder.decodeList(results, resultType.getType()));
+        }
+
+        private Source source(Iterable<String> varNames) {
+            final List<String> varNameList = new ArrayList<>();
+            for (String varName : varNames) {
+                varNameList.add(varName);
+            }
+            return sourceByVarNames.get(varNameList, names -> createSource(names, false));
+        }
+
+        private Source createSource(List<String> varNames, boolean columnar) {
             final StringBuilder finalScriptBuilder = new StringBuilder();
-            finalScriptBuilder.append(functionsHelper);
-            finalScriptBuilder.append("\nconst _var_names = [...varNames];\n");
+            finalScriptBuilder.append("(function () {\n");
+            finalScriptBuilder.append("const _var_names = [");
+            for (String varName : varNames) {
+                finalScriptBuilder.append('"');
+                finalScriptBuilder.append(varName.replace("\\", "\\\\").replace("\"", "\\\""));
+                finalScriptBuilder.append("\", ");
+            }
+            finalScriptBuilder.append("];\n");
             if (sharedScript != null) {
                 final String trimmedSharedScript = sharedScript.trim();
                 finalScriptBuilder.append(trimmedSharedScript);
@@ -108,172 +574,210 @@ public class JavaScript {
             finalScriptBuilder.append("\nreturn ");
             finalScriptBuilder.append(resultExpression.trim());
             finalScriptBuilder.append(";\n}\n");
-            finalScriptBuilder.append("const _results = [];\n");
-            finalScriptBuilder.append("for (const vars of varsBatch) { _results.push(_calc.apply(null, _var_names.map(n => vars[n]))) }\n");
-            finalScriptBuilder.append("_results;");
+            if (columnar) {
+                finalScriptBuilder.append("return function (columns, size, results) {\n");
+                for (int i = 0; i < varNames.size(); i++) {
+                    finalScriptBuilder.append("const _c").append(i).append(" = columns[").append(i).append("];\n");
+                }
+                finalScriptBuilder.append("for (let i = 0; i < size; i++) { results[i] = _calc(");
+                for (int i = 0; i < varNames.size(); i++) {
+                    finalScriptBuilder.append("_c").append(i).append("[i], ");
+                }
+                finalScriptBuilder.append(") }\n};\n})();");
+            } else {
+                finalScriptBuilder.append("return function (varsBatch) {\n");
+                finalScriptBuilder.append("const _results = [];\n");
+                finalScriptBuilder.append("for (const vars of varsBatch) { _results.push(_calc.apply(null, _var_names.map(n => vars[n]))) }\n");
+                finalScriptBuilder.append("return _results;\n};\n})();");
+            }
             final String finalScript = finalScriptBuilder.toString();
 
-            final Map<String, Object> vars = new HashMap<>();
-            vars.put("varNames", varNames);
-            final List<Map<String, Object>> varsBatchConverted = StreamSupport.stream(varsBatch.spliterator(), false).map(entries -> {
-                final Map<String, Object> var = new HashMap<>();
-                while (entries.hasNext()) {
-                    final Map.Entry<String, ?> entry = entries.next();
-                    var.put(entry.getKey(), JavaScript.toJsObject(entry.getValue()));
-                }
-                return var;
-            }).collect(Collectors.toList());
-            vars.put("varsBatch",  varsBatchConverted);
-
-            final Source source = Source.create("js", finalScript);
-            final List<Object> results = new Prepared(source)
-                    .addValueTranslator(value -> value.as(new TypeLiteral<List<Value>>() { }))
-                    .evalAsList(vars.entrySet().iterator());
-            //noinspection unchecked
-            return (List<T>) results;
+            return EvalLog.source(finalScript, true);
         }
-    }
 
-    private static Object toJsObject(Object value) {
-        if (value instanceof Ref<?>) {
-            value = ((Ref<?>) value).getValue();
-        } else if (value instanceof BigDecimal) {
-            final BigDecimal bigDecimal = (BigDecimal) value;
-            if (bigDecimal.compareTo(maxLongValueBigDecimalView) < 0) {
-                value = bigDecimal.doubleValue();
-            }
-        } else if (value instanceof BigInteger) {
-            final BigInteger bigInteger = (BigInteger) value;
-            if (bigInteger.compareTo(maxLongValueBigIntegerView) < 0) {
-                value = bigInteger.longValue();
+        /**
+         * 分块计算的结果迭代器，占用一个Context直到遍历结束或close()
+         */
+        public class BatchIterator<T> implements Iterator<T>, AutoCloseable {
+            private final Source source;
+            private final Iterator<? extends Iterator<? extends Map.Entry<String, ?>>> varsBatch;
+            private final int chunkSize;
+            private final TypeLiteral<T> resultType;
+            /**
+             * 各分块共用，同一批次内的查询缓存对所有分块有效
+             */
+            private final EvalScope scope = new EvalScope();
+            private Lease lease;
+            private Value calcFunction;
+            private List<T> chunkResults = Collections.emptyList();
+            private int index = 0;
+            private boolean closed = false;
+
+            private BatchIterator(Source source, Iterator<? extends Iterator<? extends Map.Entry<String, ?>>> varsBatch, int chunkSize, TypeLiteral<T> resultType) {
+                this.source = source;
+                this.varsBatch = varsBatch;
+                this.chunkSize = chunkSize;
+                this.resultType = resultType;
             }
-        }
-        return value;
-    }
 
-    /**
-     * <li>If the value has {@link #hasArrayElements() array elements} and it has an
-     * {@link Value#getArraySize() array size} that is smaller or equal than
-     * {@link Integer#MAX_VALUE} then the result value will implement {@link List}. Every array
-     * element of the value maps to one list element. The size of the returned list maps to the
-     * array size of the value.
-     *
-     * <li>If the value has {@link #hasHashEntries() hash entries} then the result value will
-     * implement {@link Map}. The {@link Map#size() size} of the returned {@link Map} is equal to
-     * the {@link #getHashSize() hash entries count}. The returned value may also implement
-     * {@link Function} if the value can be {@link #canExecute() executed} or
-     * {@link #canInstantiate() instantiated}.
-     *
-     *
-     * <li>If the value {@link #hasMembers() has members} then the result value will implement
-     * {@link Map}. If this value {@link #hasMembers() has members} then all members are accessible
-     * using {@link String} keys. The {@link Map#size() size} of the returned {@link Map} is equal
-     * to the count of all members. The returned value may also implement {@link Function} if the
-     * value can be {@link #canExecute() executed} or {@link #canInstantiate() instantiated}.
-     *
-     *
-     * <li>If the value has an {@link #hasIterator()} iterator} then the result value will implement
-     * {@link Iterable}. The returned value may also implement {@link Function} if the value can be
-     * {@link #canExecute() executed} or {@link #canInstantiate() instantiated}.
-     *
-     * <li>If the value is an {@link #isIterator()} iterator} then the result value will implement
-     * {@link Iterator}. The returned value may also implement {@link Function} if the value can be
-     * {@link #canExecute() executed} or {@link #canInstantiate() instantiated}.
-     */
-    private static <T> T transResult(T result, @NotNull Function<Value, Object> itemTranslator, @NotNull Function<Value, Object> finalTranslator) {
-        if (result instanceof List) {
-            //noinspection unchecked
-            return (T) ((List<?>) result).stream().map(it -> transResult(it, itemTranslator, finalTranslator)).collect(Collectors.toList());
-        }
-        if (result instanceof Map) {
-            @SuppressWarnings("rawtypes") final HashMap hashMap = new HashMap<>((Map<?, ?>) result);
-            //noinspection unchecked
-            hashMap.replaceAll((k, v) -> transResult(v, itemTranslator, finalTranslator));
-            //noinspection unchecked
-            return (T) hashMap;
-        }
-        if (result instanceof Value) {
-            final Value value = (Value) result;
-            Object tempResult = itemTranslator.apply(value);
-            if ((tempResult instanceof Value)) {
-                final Value step1value = (Value) tempResult;
-                if (step1value.hasArrayElements()) {
-                    tempResult = step1value.as(new TypeLiteral<List<Value>>() { });
-                } else if (step1value.hasHashEntries() || step1value.hasMembers()) {
-                    tempResult = step1value.as(new TypeLiteral<Map<String, Value>>() { });
-                } else {
-                    tempResult = finalTranslator.apply(step1value);
+            @Override
+            public boolean hasNext() {
+                while (index >= chunkResults.size()) {
+                    if (closed || !varsBatch.hasNext()) {
+                        close();
+                        return false;
+                    }
+                    nextChunk();
                 }
+                return true;
             }
-            //noinspection unchecked
-            return (T) transResult(tempResult, itemTranslator, finalTranslator);
-        }
-        return result;
-    }
 
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return chunkResults.get(index++);
+            }
 
-    private static Object finalTranslator(Value value) {
-        return value.as(Object.class);
-    }
+            private void nextChunk() {
+                final List<Map<String, Object>> chunk = new ArrayList<>(chunkSize);
+                while (chunk.size() < chunkSize && varsBatch.hasNext()) {
+                    chunk.add(toJsRow(varsBatch.next()));
+                }
+                try (final EvalScope.Handle ignored = EvalScope.enter(scope)) {
+                    if (lease == null) {
+                        lease = lease(source);
+                        calcFunction = lease.context.eval(source);
+                    }
+                    final long start = EvalLog.start(source);
+                    final ScriptMetrics metrics = JavaScript.this.metrics;
+                    final long batchStart = now(metrics);
+                    chunkResults = calc(calcFunction, chunk, resultType);
+                    lap(metrics, ScriptMetrics.Phase.BATCH, source, batchStart, chunk.size());
+                    EvalLog.end(source, "chunk", start, chunkResults);
+                    index = 0;
+                } catch (RuntimeException e) {
+                    if (lease != null) {
+                        lease.discard();
+                    }
+                    close();
+                    throw e;
+                }
+            }
 
-    private static Object baseTranslator(Value value) {
-        if (value.isNull()) {
-            return null;
-        }
-        if (value.isHostObject()) {
-            return value.asHostObject();
-        }
-        if (value.isString()) {
-            return value.asString();
-        }
-        if (value.isBoolean()) {
-            return value.asBoolean();
-        }
-        if (value.isNumber()) {
-            return value.as(Object.class);
+            @Override
+            public void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                chunkResults = Collections.emptyList();
+                calcFunction = null;
+                try {
+                    scope.close();
+                } finally {
+                    if (lease != null) {
+                        lease.close();
+                        lease = null;
+                    }
+                }
+            }
         }
-        return value;
     }
 
-    private static Object dateTimeTranslator(Value value) {
-        LocalDate date = null;
-        LocalTime time = null;
-        if (value.isDate()) {
-            date = value.asDate();
-        }
-        if (value.isTime()) {
-            time = value.asTime();
-        }
-        if (date != null) {
-            if (time != null) {
-                return LocalDateTime.of(date, time);
-            }
-            return date;
+    /**
+     * Map, List, 数组以及Bean转为代理，其他值按codecs转换，仍无法序列化时抛出异常
+     */
+    private final ProxyExecutable jsonEncoder = args -> {
+        final Object host = args[0].asHostObject();
+        final Object encoded = JsProxy.of(host, codecs, resultDecoder);
+        if (encoded instanceof Proxy || encoded instanceof String || encoded instanceof Boolean || encoded instanceof Character
+                || encoded instanceof Integer || encoded instanceof Long || encoded instanceof Double
+                || encoded instanceof Float || encoded instanceof Short || encoded instanceof Byte
+                || encoded != null && encoded.getClass().isArray()) {
+            return encoded;
         }
-        if (time != null) {
-            return time;
+        throw new IllegalArgumentException("无法序列化为JSON: " + host.getClass().getName() + "，可通过getCodecs()注册转换规则");
+    };
+
+    private Map<String, Object> toJsRow(Iterator<? extends Map.Entry<String, ?>> entries) {
+        final Map<String, Object> var = new HashMap<>();
+        while (entries.hasNext()) {
+            final Map.Entry<String, ?> entry = entries.next();
+            var.put(entry.getKey(), codecs.toJs(entry.getValue()));
         }
-        return value;
+        return var;
     }
 
+    /**
+     * java对象(如Map, 超出long范围的BigDecimal, Bean)在JSON.stringify中会变成{}，交由jsonEncoder转换
+     */
+    private static final Source jsonStringify = Source.newBuilder("js",
+            "(function (value, encode) {\n" +
+            "    return JSON.stringify(value, function (key, v) {\n" +
+            "        return typeof v === 'object' && v !== null && Java.isJavaObject(v) ? encode(v) : v;\n" +
+            "    });\n" +
+            "})", "json-stringify.js").cached(true).buildLiteral();
+    private static final Source jsonParse = Source.newBuilder("js", "JSON.parse", "json-parse.js").cached(true).buildLiteral();
+
+    /**
+     * JsProxy.of(value)使用的默认规则
+     */
+    static final Codecs defaultCodecs = Codecs.createDefault();
+    static final ResultDecoder defaultDecoder = new ResultDecoder(defaultCodecs, Collections.emptyList());
+
     public class Prepared {
         private final Source source;
-        private final Stack<Function<Value, Object>> translators = new Stack<>();
+        private final List<Function<Value, Object>> translators = new ArrayList<>();
+        private ResultDecoder decoder;
+        private boolean shared = false;
 
         private Prepared(Source source) {
             this.source = source;
-            translators.add(JavaScript::baseTranslator);
-            translators.add(JavaScript::dateTimeTranslator);
+            this.decoder = resultDecoder;
+        }
+
+        private Prepared(Prepared prepared) {
+            this.source = prepared.source;
+            translators.addAll(prepared.translators);
+            this.decoder = prepared.decoder;
         }
 
         /**
-         * 添加值转换器，value不会是List或者Map类型，针对List或者Map，会根据值的数量，调用多次转换器
+         * @return 脚本ID，与日志以及错误位置中的Source名称一致
          */
-        public Prepared addValueTranslator(Function<Value, Object> itemTranslator) {
-            translators.add(itemTranslator);
+        public String getScriptId() {
+            return source.getName();
+        }
+
+        /**
+         * 标记为共享(如被缓存)，之后addValueTranslator不再修改该对象
+         */
+        Prepared share() {
+            shared = true;
             return this;
         }
 
+        /**
+         * @return 不共享的副本，包含已添加的转换器，可以再添加转换器
+         */
+        public Prepared copy() {
+            return new Prepared(this);
+        }
+
+        /**
+         * 添加值转换器，value不会是List或者Map类型，针对List或者Map，会根据值的数量，调用多次转换器。
+         * 转换器只会收到Codecs未转换的值，需要全局生效或按类型转换的规则建议注册到JavaScript.getCodecs()
+         * @return 共享的Prepared(如JavaScriptUtil缓存的)会返回添加了转换器的副本，需使用返回值
+         */
+        public Prepared addValueTranslator(Function<Value, Object> itemTranslator) {
+            final Prepared target = shared ? copy() : this;
+            target.translators.add(itemTranslator);
+            target.decoder = new ResultDecoder(codecs, target.translators);
+            return target;
+        }
+
         /**
          * 执行JS
          * @return Java对象，如下表
@@ -313,8 +817,8 @@ public class JavaScript {
          *             如希望阻止该行为，使用<code>Ref.of(BigDecimal)</code>，js端直接使用<code>BigDecimal</code>的 <code>.add()</code><code>.subtract()</code>访问该对象
          */
         public Map<String, Object> evalAsMap(Iterator<? extends Map.Entry<String, ?>> vars) {
-            //noinspection unchecked,rawtypes
-            return (Map) eval(vars, v -> v.as(new TypeLiteral<Map<String, Value>>() { }), true);
+            final ResultDecoder decoder = this.decoder;
+            return eval(vars, decoder::decodeMap);
         }
 
         public void exec() {
@@ -322,7 +826,7 @@ public class JavaScript {
         }
 
         public void exec(Iterator<? extends Map.Entry<String, ?>> vars) {
-            eval(vars, v -> null, false);
+            eval(vars, v -> null);
         }
 
         /**
@@ -364,8 +868,8 @@ public class JavaScript {
          *             如希望阻止该行为，使用<code>Ref.of(BigDecimal)</code>，js端直接使用<code>BigDecimal</code>的 <code>.add()</code><code>.subtract()</code>访问该对象
          */
         public List<Object> evalAsList(Iterator<? extends Map.Entry<String, ?>> vars) {
-            //noinspection unchecked,rawtypes
-            return (List) eval(vars, v -> v.as(new TypeLiteral<List<Value>>() { }), true);
+            final ResultDecoder decoder = this.decoder;
+            return eval(vars, decoder::decodeList);
         }
 
         /**
@@ -387,7 +891,121 @@ public class JavaScript {
          *             如希望阻止该行为，使用<code>Ref.of(BigDecimal)</code>，js端直接使用<code>BigDecimal</code>的 <code>.add()</code><code>.subtract()</code>访问该对象
          */
         public <T> T eval(Iterator<? extends Map.Entry<String, ?>> vars, Class<T> resultType) {
-            return eval(vars, v -> v.as(resultType), false);
+            //noinspection unchecked
+            return eval(vars, v -> (T) ResultDecoder.detach(v.as(resultType)));
+        }
+
+        /**
+         * 执行JS，将结果按字段直接转换为Bean(无参构造器+字段/setter)或record，每个类的转换计划只生成一次
+         * @param vars 变量 map
+         *             会自动将long范围内的BigDecimal转成double
+         *             会自动将long范围内的BigInteger转成long
+         * @param beanType 属性支持基本类型、String、BigDecimal、LocalDate(Time)、枚举、List、Map以及嵌套的Bean
+         */
+        public <T> T evalAsBean(Map<String, ?> vars, Class<T> beanType) {
+            return evalAsBean(vars.entrySet().iterator(), beanType);
+        }
+
+        /**
+         * 同上
+         * @param vars 变量 可通过map.entrySet().iterator() 获得
+         */
+        public <T> T evalAsBean(Iterator<? extends Map.Entry<String, ?>> vars, Class<T> beanType) {
+            final ResultDecoder decoder = this.decoder;
+            return eval(vars, v -> decoder.decodeBean(v, beanType));
+        }
+
+        /**
+         * 执行JS，在js中使用JSON.stringify序列化结果，不经过Map, List的转换，适合直接写入HTTP响应或消息队列
+         * @param vars 变量 map
+         * 结果中的java对象：Map, List, 数组以及Bean按其属性序列化，其他值按getCodecs()转换后仍不是JSON的值(如超出long范围的BigDecimal)时抛出异常
+         * @return 结果为undefined或无法序列化(如function)时返回null
+         */
+        public String evalAsJson(Map<String, ?> vars) {
+            return evalAsJson(vars.entrySet().iterator());
+        }
+
+        /**
+         * 同上
+         * @param vars 变量 可通过map.entrySet().iterator() 获得
+         */
+        public String evalAsJson(Iterator<? extends Map.Entry<String, ?>> vars) {
+            return eval(lease -> {
+                if (vars != null) {
+                    toJsObject(vars, lease.bindings);
+                }
+            }, this::stringify);
+        }
+
+        /**
+         * 执行JS，变量以JSON传入并在js中解析，结果同样在js中序列化为JSON
+         * @param jsonVars UTF-8编码的JSON对象，顶层的每个属性作为一个变量
+         */
+        public String evalAsJson(byte[] jsonVars) {
+            return eval(lease -> parseJsonVars(jsonVars, lease), this::stringify);
+        }
+
+        /**
+         * 同evalAsJson，返回UTF-8编码的JSON
+         */
+        public byte[] evalAsJsonBytes(Map<String, ?> vars) {
+            return toBytes(evalAsJson(vars));
+        }
+
+        /**
+         * 同evalAsJson，返回UTF-8编码的JSON
+         * @param jsonVars UTF-8编码的JSON对象，顶层的每个属性作为一个变量
+         */
+        public byte[] evalAsJsonBytes(byte[] jsonVars) {
+            return toBytes(evalAsJson(jsonVars));
+        }
+
+        /**
+         * 执行JS，变量以JSON传入并在js中解析
+         * @param jsonVars UTF-8编码的JSON对象，顶层的每个属性作为一个变量
+         */
+        public Map<String, Object> evalAsMap(byte[] jsonVars) {
+            final ResultDecoder decoder = this.decoder;
+            return eval(lease -> parseJsonVars(jsonVars, lease), (lease, v) -> decoder.decodeMap(v));
+        }
+
+        private byte[] toBytes(String json) {
+            return json == null ? null : json.getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * 执行JS，返回惰性的Map视图，只有被访问到的值才会被转换，适合结果很大但只读取其中少数字段的场景。
+         * 视图占用Context直到close()，转换规则同evalAsMap
+         * @param vars 变量 map
+         */
+        public LazyResult.LazyMap evalAsLazyMap(Map<String, ?> vars) {
+            return evalAsLazyMap(vars.entrySet().iterator());
+        }
+
+        /**
+         * 同上
+         * @param vars 变量 可通过map.entrySet().iterator() 获得
+         */
+        public LazyResult.LazyMap evalAsLazyMap(Iterator<? extends Map.Entry<String, ?>> vars) {
+            final ResultDecoder decoder = this.decoder;
+            return evalLazy(vars, (lease, v) -> LazyResult.map(lease, decoder, v));
+        }
+
+        /**
+         * 执行JS，返回惰性的List视图，视图占用Context直到close()，转换规则同evalAsList
+         * @param vars 变量 map
+         */
+        public LazyResult.LazyList evalAsLazyList(Map<String, ?> vars) {
+            return evalAsLazyList(vars.entrySet().iterator());
+        }
+
+        /**
+         * 同上
+         * @param vars 变量 可通过map.entrySet().iterator() 获得
+         */
+        public LazyResult.LazyList evalAsLazyList(Iterator<? extends Map.Entry<String, ?>> vars) {
+            final ResultDecoder decoder = this.decoder;
+            return evalLazy(vars, (lease, v) -> LazyResult.list(lease, decoder, v));
         }
 
         /**
@@ -415,41 +1033,88 @@ public class JavaScript {
          *                   但不支持 new TypeLiteral&lt;HashMap&lt;?, ?>>() { }
          */
         public <T> T eval(Iterator<? extends Map.Entry<String, ?>> vars, TypeLiteral<T> resultType) {
-            return eval(vars, v -> v.as(resultType), false);
+            //noinspection unchecked
+            return eval(vars, v -> (T) ResultDecoder.detach(v.as(resultType)));
         }
 
-        <T> T eval(Iterator<? extends Map.Entry<String, ?>> vars, Function<Value, T> resultHandler, boolean translateValueToObject) {
-            try (final Context context = builder.build()) {
-                final Value bindings = context.getBindings("js");
-                bindings.putMember(JavaFunctionName, functions);
+        /**
+         * @param resultHandler 在Context关闭前将js结果转为java对象
+         */
+        <T> T eval(Iterator<? extends Map.Entry<String, ?>> vars, Function<Value, T> resultHandler) {
+            return eval(lease -> {
                 if (vars != null) {
-                    toJsObject(vars, bindings);
+                    toJsObject(vars, lease.bindings);
                 }
-                final Boolean d = disableLog.get();
-                if (!d) {
-                    log.info(source.getCharacters());
+            }, (lease, v) -> resultHandler.apply(v));
+        }
+
+        /**
+         * @param binder 在执行前设置变量
+         * @param resultHandler 在Context关闭前将js结果转为java对象
+         */
+        private <T> T eval(Consumer<Lease> binder, BiFunction<Lease, Value, T> resultHandler) {
+            try (final EvalScope.Handle ignored = EvalScope.open(); final Lease lease = lease(source)) {
+                try {
+                    final ScriptMetrics metrics = JavaScript.this.metrics;
+                    long t = now(metrics);
+                    binder.accept(lease);
+                    t = lap(metrics, ScriptMetrics.Phase.BIND, source, t, 1);
+                    final long start = EvalLog.start(source);
+                    final Value value = lease.context.eval(source);
+                    t = lap(metrics, ScriptMetrics.Phase.EVAL, source, t, 1);
+                    final T result = resultHandler.apply(lease, value);
+                    lap(metrics, ScriptMetrics.Phase.CONVERT, source, t, 1);
+                    EvalLog.end(source, "eval", start, result);
+                    return result;
+                } catch (RuntimeException e) {
+                    lease.discard();
+                    throw e;
                 }
+            }
+        }
 
-                final Value step0result = context.eval(source);
-                final T step1result = resultHandler.apply(step0result);
-                final T result = transResult(step1result, v -> {
-                    if (!translateValueToObject) {
-                        return v;
-                    }
-                    for (Function<Value, Object> translator : translators) {
-                        final Object r = translator.apply(v);
-                        if (!(r instanceof Value)) {
-                            return r;
-                        }
-                        v = (Value) r;
-                    }
-                    return v;
-                }, JavaScript::finalTranslator);
-                if (!d) {
-                    log.info("eval result: " + result);
+        /**
+         * 结果持有Lease，由视图负责归还，只在出错时在此归还
+         */
+        private <T> T evalLazy(Iterator<? extends Map.Entry<String, ?>> vars, BiFunction<Lease, Value, T> viewFactory) {
+            final Lease lease = lease(source);
+            try (final EvalScope.Handle ignored = EvalScope.open()) {
+                final ScriptMetrics metrics = JavaScript.this.metrics;
+                long t = now(metrics);
+                if (vars != null) {
+                    toJsObject(vars, lease.bindings);
                 }
-                return result;
+                t = lap(metrics, ScriptMetrics.Phase.BIND, source, t, 1);
+                final long start = EvalLog.start(source);
+                final Value value = lease.context.eval(source);
+                lap(metrics, ScriptMetrics.Phase.EVAL, source, t, 1);
+                final T view = viewFactory.apply(lease, value);
+                // 视图的大小需要访问js对象，这里不记录
+                EvalLog.end(source, "lazy", start, null);
+                return view;
+            } catch (RuntimeException e) {
+                lease.discard();
+                lease.close();
+                throw e;
+            }
+        }
+
+        /**
+         * 在js中解析JSON，顶层的每个属性作为一个变量
+         */
+        private void parseJsonVars(byte[] jsonVars, Lease lease) {
+            final Value vars = lease.context.eval(jsonParse).execute(new String(jsonVars, StandardCharsets.UTF_8));
+            if (!vars.hasMembers() || vars.hasArrayElements()) {
+                throw new IllegalArgumentException("jsonVars必须是JSON对象");
             }
+            for (String key : vars.getMemberKeys()) {
+                lease.bindings.putMember(key, vars.getMember(key));
+            }
+        }
+
+        private String stringify(Lease lease, Value result) {
+            final Value json = lease.context.eval(jsonStringify).execute(result, jsonEncoder);
+            return json.isNull() ? null : json.asString();
         }
 
         private void toJsObject(@NotNull Iterator<? extends Map.Entry<String, ?>> vars, Value bindings) {
@@ -457,7 +1122,7 @@ public class JavaScript {
                 final Map.Entry<String, ?> entry = vars.next();
                 final String key = entry.getKey();
                 Object value = entry.getValue();
-                value = JavaScript.toJsObject(value);
+                value = codecs.toJs(value);
                 bindings.putMember(key, value);
             }
         }
@@ -495,9 +1160,38 @@ public class JavaScript {
         return new PreparedBatch(sharedScript, calcStatement, resultExpression);
     }
 
+    /**
+     * 编译一个可反复调用的函数，例如 function("a, b", "a * b + 1").callAsDouble(2, 3)
+     *
+     * @param params 参数列表
+     * @param resultExpression 返回结果表达式，必须为一个表达式
+     */
+    public JsFunction function(@NotNull String params, @NotNull String resultExpression) {
+        String expression = resultExpression.trim();
+        if (expression.endsWith(";")) {
+            expression = expression.substring(0, expression.length() - 1);
+        }
+        final String script = "(function (" + params + ") {\nreturn (" + expression + "\n);\n})";
+        final Source source = Source
+                .newBuilder("js", script, null)
+                .cached(true)
+                .buildLiteral();
+        return new JsFunction(this, source);
+    }
+
+    /**
+     * 关闭共享的Engine，关闭后该实例不可再用于执行脚本
+     */
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.close();
+        }
+        engine.close();
+    }
+
     private Prepared prepare(String script, Boolean cache) {
         final StringBuilder finalScriptBuilder = new StringBuilder();
-        finalScriptBuilder.append(functionsHelper);
         if (script.startsWith("{")) {
             finalScriptBuilder.append('(');
             finalScriptBuilder.append(script);
@@ -505,14 +1199,11 @@ public class JavaScript {
         } else {
             finalScriptBuilder.append(script);
         }
-        final String finalScript = finalScriptBuilder.toString();
-        final Source source = Source
-                .newBuilder("js", finalScript, null)
-                .cached(cache)
-                .buildLiteral();
-        return new Prepared(source);
+        if (pool != null) {
+            // 块作用域，使顶层的let, const在池化的Context中不会与下一次执行冲突
+            finalScriptBuilder.insert(0, '{');
+            finalScriptBuilder.append("\n}");
+        }
+        return new Prepared(EvalLog.source(finalScriptBuilder.toString(), cache));
     }
-
-    private final static BigInteger maxLongValueBigIntegerView = new BigInteger(String.valueOf(Long.MAX_VALUE));
-    private final static BigDecimal maxLongValueBigDecimalView = new BigDecimal(Long.MAX_VALUE);
 }
@@ -1,17 +1,64 @@
 package cn.cloudself.script;
 
+import cn.cloudself.script.util.LruCache;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public class JavaScriptUtil {
     private static final JavaScript instance = new JavaScript(CommonFunctionsForScript.INSTANCE);
 
+    /**
+     * 可通过系统属性 script-kit.prepared-cache.max-size, script-kit.prepared-cache.max-idle-millis 调整
+     */
+    private static final int preparedCacheMaxSize = Integer.getInteger("script-kit.prepared-cache.max-size", 1024);
+    private static final long preparedCacheMaxIdleMillis = Long.getLong("script-kit.prepared-cache.max-idle-millis", 60 * 60 * 1000L);
+
+    private static final LruCache<String, JavaScript.Prepared> ofCache = new LruCache<>(preparedCacheMaxSize, preparedCacheMaxIdleMillis);
+    private static final LruCache<String, JavaScript.Prepared> compileCache = new LruCache<>(preparedCacheMaxSize, preparedCacheMaxIdleMillis);
+
+    /**
+     * 相同的脚本会复用缓存的Prepared，其addValueTranslator会返回副本
+     */
     public static JavaScript.Prepared of(String script) {
-        return instance.of(script);
+        return ofCache.get(script, s -> instance.of(s).share());
     }
 
+    /**
+     * 相同的脚本会复用缓存的Prepared，其addValueTranslator会返回副本
+     */
     public static JavaScript.Prepared compile(String script) {
-        return instance.compile(script);
+        return compileCache.get(script, s -> instance.compile(s).share());
+    }
+
+    /**
+     * of(script)的缓存，可用于查看命中、未命中、淘汰次数
+     */
+    public static LruCache<String, JavaScript.Prepared> getOfCache() {
+        return ofCache;
+    }
+
+    /**
+     * compile(script)的缓存，可用于查看命中、未命中、淘汰次数
+     */
+    public static LruCache<String, JavaScript.Prepared> getCompileCache() {
+        return compileCache;
+    }
+
+    /**
+     * 设置共享实例的metrics，同时注册of, compile缓存的瞬时值
+     */
+    public static void setMetrics(@Nullable ScriptMetrics metrics) {
+        if (metrics != null) {
+            metrics.gauge("of-cache.size", ofCache::size);
+            metrics.gauge("of-cache.hits", ofCache::getHitCount);
+            metrics.gauge("of-cache.misses", ofCache::getMissCount);
+            metrics.gauge("of-cache.evictions", ofCache::getEvictionCount);
+            metrics.gauge("compile-cache.size", compileCache::size);
+            metrics.gauge("compile-cache.hits", compileCache::getHitCount);
+            metrics.gauge("compile-cache.misses", compileCache::getMissCount);
+            metrics.gauge("compile-cache.evictions", compileCache::getEvictionCount);
+        }
+        instance.setMetrics(metrics);
     }
 
     /**
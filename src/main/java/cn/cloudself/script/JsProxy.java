@@ -0,0 +1,283 @@
+package cn.cloudself.script;
+
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.Proxy;
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.graalvm.polyglot.proxy.ProxyObject;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * 以代理的方式将Map, List, 数组以及Bean传给js，js端看到的是普通的对象和数组，属性读取时才访问原对象，不需要BeanHelper.toMapDeep整体复制。
+ * Bean的getter(或字段)每个类只解析一次并缓存为MethodHandle。
+ * <pre><code>
+ * prepared.evalAsMap(Collections.singletonMap("order", JsProxy.of(order))); // js: order.items[0].price
+ * </code></pre>
+ * Map和List的代理可写，写入值同evalAsMap的规则转换，Bean的代理只读。
+ * 代理作为结果返回时会还原为原对象。
+ * 该方法使用默认的转换规则，自定义了getCodecs()的实例使用javaScript.proxy(value)。
+ */
+public final class JsProxy {
+    private JsProxy() {}
+
+    /**
+     * @return Map, List, 数组以及Bean返回代理，其他值同普通vars的规则转换
+     */
+    public static Object of(Object value) {
+        return of(value, JavaScript.defaultCodecs, JavaScript.defaultDecoder);
+    }
+
+    /**
+     * @param codecs 读取属性时java -> js的转换
+     * @param decoder 写入属性时js -> java的转换
+     */
+    static Object of(Object value, Codecs codecs, ResultDecoder decoder) {
+        if (value == null || value instanceof Proxy || value instanceof Value) {
+            return value;
+        }
+        if (value instanceof Map) {
+            return new MapProxy((Map<?, ?>) value, codecs, decoder);
+        }
+        if (value instanceof List) {
+            return new ListProxy((List<?>) value, value, codecs, decoder);
+        }
+        if (value instanceof Object[]) {
+            return new ListProxy(Arrays.asList((Object[]) value), value, codecs, decoder);
+        }
+        // Ref以及注册了转换规则的类型按规则转换
+        final Object encoded = codecs.toJs(value);
+        if (encoded != value || !isBean(value.getClass())) {
+            return encoded;
+        }
+        return new BeanProxy(value, accessors.get(value.getClass()), codecs, decoder);
+    }
+
+    /**
+     * 返回代理所包装的原对象，非代理返回null
+     */
+    static Object unwrap(Proxy proxy) {
+        return proxy instanceof Wrapper ? ((Wrapper) proxy).target() : null;
+    }
+
+    private static boolean isBean(Class<?> type) {
+        if (type.isPrimitive() || type.isArray() || type.isEnum() || type.isSynthetic()) {
+            return false;
+        }
+        final String name = type.getName();
+        return !name.startsWith("java.") && !name.startsWith("javax.") && !name.startsWith("org.graalvm.");
+    }
+
+    private interface Wrapper {
+        Object target();
+    }
+
+    private static final class MapProxy implements ProxyObject, Wrapper {
+        private final Map<?, ?> map;
+        private final Codecs codecs;
+        private final ResultDecoder decoder;
+
+        private MapProxy(Map<?, ?> map, Codecs codecs, ResultDecoder decoder) {
+            this.map = map;
+            this.codecs = codecs;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public Object getMember(String key) {
+            return of(map.get(key), codecs, decoder);
+        }
+
+        @Override
+        public Object getMemberKeys() {
+            final Object[] keys = new Object[map.size()];
+            int i = 0;
+            for (Object key : map.keySet()) {
+                keys[i++] = String.valueOf(key);
+            }
+            return ProxyArray.fromArray(keys);
+        }
+
+        @Override
+        public boolean hasMember(String key) {
+            return map.containsKey(key);
+        }
+
+        @Override
+        public void putMember(String key, Value value) {
+            //noinspection unchecked
+            ((Map<String, Object>) map).put(key, decoder.decode(value));
+        }
+
+        @Override
+        public boolean removeMember(String key) {
+            if (!map.containsKey(key)) {
+                return false;
+            }
+            map.remove(key);
+            return true;
+        }
+
+        @Override
+        public Object target() {
+            return map;
+        }
+    }
+
+    private static final class ListProxy implements ProxyArray, Wrapper {
+        private final List<?> list;
+        private final Object target;
+        private final Codecs codecs;
+        private final ResultDecoder decoder;
+
+        private ListProxy(List<?> list, Object target, Codecs codecs, ResultDecoder decoder) {
+            this.list = list;
+            this.target = target;
+            this.codecs = codecs;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public Object get(long index) {
+            return of(list.get(checkIndex(index)), codecs, decoder);
+        }
+
+        /**
+         * index等于size时追加(js的push)，数组的代理长度固定，无法追加
+         */
+        @Override
+        public void set(long index, Value value) {
+            //noinspection unchecked
+            final List<Object> target = (List<Object>) list;
+            if (index == list.size()) {
+                target.add(decoder.decode(value));
+                return;
+            }
+            target.set(checkIndex(index), decoder.decode(value));
+        }
+
+        @Override
+        public long getSize() {
+            return list.size();
+        }
+
+        private int checkIndex(long index) {
+            if (index < 0 || index >= list.size()) {
+                throw new ArrayIndexOutOfBoundsException("Index: " + index + ", Size: " + list.size());
+            }
+            return (int) index;
+        }
+
+        @Override
+        public Object target() {
+            return target;
+        }
+    }
+
+    private static final class BeanProxy implements ProxyObject, Wrapper {
+        private final Object bean;
+        private final Accessors accessors;
+        private final Codecs codecs;
+        private final ResultDecoder decoder;
+
+        private BeanProxy(Object bean, Accessors accessors, Codecs codecs, ResultDecoder decoder) {
+            this.bean = bean;
+            this.accessors = accessors;
+            this.codecs = codecs;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public Object getMember(String key) {
+            final MethodHandle getter = accessors.getters.get(key);
+            if (getter == null) {
+                return null;
+            }
+            try {
+                return of((Object) getter.invokeExact(bean), codecs, decoder);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Object getMemberKeys() {
+            return accessors.keys;
+        }
+
+        @Override
+        public boolean hasMember(String key) {
+            return accessors.getters.containsKey(key);
+        }
+
+        @Override
+        public void putMember(String key, Value value) {
+            throw new UnsupportedOperationException("Bean代理是只读的，无法设置属性 " + key);
+        }
+
+        @Override
+        public Object target() {
+            return bean;
+        }
+    }
+
+    private static final ClassValue<Accessors> accessors = new ClassValue<Accessors>() {
+        @Override
+        protected Accessors computeValue(Class<?> type) {
+            return new Accessors(type);
+        }
+    };
+
+    private static final class Accessors {
+        private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+        private final Map<String, MethodHandle> getters = new LinkedHashMap<>();
+        private final ProxyArray keys;
+
+        private Accessors(Class<?> type) {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+                for (Field field : clazz.getDeclaredFields()) {
+                    final int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || field.isSynthetic() || getters.containsKey(field.getName())) {
+                        continue;
+                    }
+                    try {
+                        getters.put(field.getName(), getter(lookup, type, field));
+                    } catch (IllegalAccessException | RuntimeException e) {
+                        throw new RuntimeException("无法访问属性 " + type.getName() + "." + field.getName(), e);
+                    }
+                }
+            }
+            keys = ProxyArray.fromArray(getters.keySet().toArray());
+        }
+
+        /**
+         * 优先使用getter(getX, isX, 或record风格的x())，没有则直接读字段
+         */
+        private static MethodHandle getter(MethodHandles.Lookup lookup, Class<?> type, Field field) throws IllegalAccessException {
+            final String name = field.getName();
+            final String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            for (String getterName : new String[]{"get" + capitalized, "is" + capitalized, name}) {
+                try {
+                    final Method method = type.getMethod(getterName);
+                    if (method.getReturnType() == void.class) {
+                        continue;
+                    }
+                    method.setAccessible(true);
+                    return lookup.unreflect(method).asType(GETTER_TYPE);
+                } catch (NoSuchMethodException ignored) {
+                }
+            }
+            field.setAccessible(true);
+            return lookup.unreflectGetter(field).asType(GETTER_TYPE);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package cn.cloudself.script;
+
+import org.graalvm.polyglot.Value;
+
+import java.util.*;
+
+/**
+ * 惰性的执行结果，Map, List视图直接由js结果支撑，只有被访问到的值才会经过转换器转换，转换结果会被缓存。
+ * 视图占用一个Context，使用完毕需close()归还，如需在close()之后继续使用，先调用materialize()得到完全转换后的副本。
+ * <pre><code>
+ * try (LazyResult.LazyMap result = prepared.evalAsLazyMap(vars)) {
+ *     Object a = result.get("a");
+ * }
+ * </code></pre>
+ */
+public final class LazyResult {
+    private LazyResult() {}
+
+    public interface LazyView extends AutoCloseable {
+        /**
+         * @return 完全转换后的HashMap或ArrayList，不再依赖Context
+         */
+        Object materialize();
+
+        /**
+         * 归还Context，嵌套的视图共享同一个Context，关闭任意一个都会使所有视图失效
+         */
+        @Override
+        void close();
+    }
+
+    /**
+     * 同一次执行产生的所有视图共享的Context以及转换器
+     */
+    static final class Scope {
+        private final JavaScript.Lease lease;
+        private final ResultDecoder decoder;
+        private boolean closed = false;
+
+        Scope(JavaScript.Lease lease, ResultDecoder decoder) {
+            this.lease = lease;
+            this.decoder = decoder;
+        }
+
+        private void ensureOpen() {
+            if (closed) {
+                throw new IllegalStateException("结果已关闭，请在close()之前访问或调用materialize()");
+            }
+        }
+
+        private Object wrap(Value value) {
+            final Object translated = decoder.translate(value);
+            if (!(translated instanceof Value)) {
+                return decoder.decodeTranslated(translated);
+            }
+            final Value v = (Value) translated;
+            if (v.hasArrayElements()) {
+                return new LazyList(this, v);
+            }
+            if (v.hasHashEntries() || v.hasMembers()) {
+                return new LazyMap(this, v);
+            }
+            return v.as(Object.class);
+        }
+
+        private void close() {
+            if (!closed) {
+                closed = true;
+                lease.close();
+            }
+        }
+    }
+
+    static LazyMap map(JavaScript.Lease lease, ResultDecoder decoder, Value value) {
+        if (value.isNull()) {
+            lease.close();
+            return null;
+        }
+        if (value.hasArrayElements() || !(value.hasHashEntries() || value.hasMembers())) {
+            throw new ClassCastException("结果不是对象: " + value);
+        }
+        return new LazyMap(new Scope(lease, decoder), value);
+    }
+
+    static LazyList list(JavaScript.Lease lease, ResultDecoder decoder, Value value) {
+        if (value.isNull()) {
+            lease.close();
+            return null;
+        }
+        if (!value.hasArrayElements()) {
+            throw new ClassCastException("结果不是数组: " + value);
+        }
+        return new LazyList(new Scope(lease, decoder), value);
+    }
+
+    private static Object materialize(Object value) {
+        return value instanceof LazyView ? ((LazyView) value).materialize() : value;
+    }
+
+    public static final class LazyMap extends AbstractMap<String, Object> implements LazyView {
+        private final Scope scope;
+        private final Value value;
+        private final Map<String, Object> translated = new HashMap<>();
+        private List<String> keys;
+
+        LazyMap(Scope scope, Value value) {
+            this.scope = scope;
+            this.value = value;
+        }
+
+        private List<String> keys() {
+            if (keys == null) {
+                scope.ensureOpen();
+                if (value.hasHashEntries()) {
+                    keys = new ArrayList<>();
+                    final Value iterator = value.getHashKeysIterator();
+                    while (iterator.hasIteratorNextElement()) {
+                        final Value key = iterator.getIteratorNextElement();
+                        keys.add(key.isString() ? key.asString() : key.toString());
+                    }
+                } else {
+                    keys = new ArrayList<>(value.getMemberKeys());
+                }
+            }
+            return keys;
+        }
+
+        @Override
+        public Object get(Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+            if (translated.containsKey(key)) {
+                return translated.get(key);
+            }
+            scope.ensureOpen();
+            final Value member = value.hasHashEntries() ? value.getHashValue(key) : value.getMember((String) key);
+            final Object result = member == null ? null : scope.wrap(member);
+            translated.put((String) key, result);
+            return result;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            if (!(key instanceof String)) {
+                return false;
+            }
+            if (translated.containsKey(key)) {
+                return true;
+            }
+            scope.ensureOpen();
+            return value.hasHashEntries() ? value.hasHashEntry(key) : value.hasMember((String) key);
+        }
+
+        @Override
+        public int size() {
+            return keys().size();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    final Iterator<String> iterator = keys().iterator();
+                    return new Iterator<Entry<String, Object>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            final String key = iterator.next();
+                            return new SimpleImmutableEntry<>(key, get(key));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keys().size();
+                }
+            };
+        }
+
+        @Override
+        public Map<String, Object> materialize() {
+            final Map<String, Object> map = new HashMap<>();
+            for (String key : keys()) {
+                map.put(key, LazyResult.materialize(get(key)));
+            }
+            return map;
+        }
+
+        @Override
+        public void close() {
+            scope.close();
+        }
+    }
+
+    public static final class LazyList extends AbstractList<Object> implements LazyView, RandomAccess {
+        private final Scope scope;
+        private final Value value;
+        private Object[] translated;
+        private boolean[] done;
+
+        LazyList(Scope scope, Value value) {
+            this.scope = scope;
+            this.value = value;
+        }
+
+        @Override
+        public Object get(int index) {
+            if (translated == null) {
+                final int size = size();
+                translated = new Object[size];
+                done = new boolean[size];
+            }
+            if (index < 0 || index >= translated.length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + translated.length);
+            }
+            if (!done[index]) {
+                scope.ensureOpen();
+                translated[index] = scope.wrap(value.getArrayElement(index));
+                done[index] = true;
+            }
+            return translated[index];
+        }
+
+        @Override
+        public int size() {
+            if (translated != null) {
+                return translated.length;
+            }
+            scope.ensureOpen();
+            return (int) value.getArraySize();
+        }
+
+        @Override
+        public List<Object> materialize() {
+            final int size = size();
+            final List<Object> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(LazyResult.materialize(get(i)));
+            }
+            return list;
+        }
+
+        @Override
+        public void close() {
+            scope.close();
+        }
+    }
+}
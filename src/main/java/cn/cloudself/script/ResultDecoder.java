@@ -0,0 +1,530 @@
+package cn.cloudself.script;
+
+import org.graalvm.polyglot.Value;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 将js结果一次性转为java对象，直接遍历Value，不经过Map&lt;String, Value&gt;等中间视图。
+ * <ul>
+ *     <li>每个值先按种类经过Codecs中的解码器，仍为Value时再依次经过转换器，直到某个转换器返回了非Value的对象</li>
+ *     <li>仍为Value时，数组转为ArrayList，有hash entries或members的转为HashMap，其余使用value.as(Object.class)</li>
+ *     <li>decodeBean按目标类型转换，每个类的转换计划只生成一次</li>
+ * </ul>
+ */
+final class ResultDecoder {
+    private final Codecs codecs;
+    private final Function<Value, Object>[] translators;
+    /**
+     * 各Bean类的属性转换函数，依赖该decoder，因此保存在decoder上，随decoder一起回收
+     */
+    private final Map<BeanPlan, Function<Value, Object>[]> beanConverters = new ConcurrentHashMap<>();
+
+    /**
+     * @param translators 在codecs之后调用的转换器(addValueTranslator添加的)
+     */
+    ResultDecoder(Codecs codecs, List<Function<Value, Object>> translators) {
+        this.codecs = codecs;
+        //noinspection unchecked
+        this.translators = translators.toArray(new Function[0]);
+    }
+
+    Object decode(Value value) {
+        final Object translated = translate(value);
+        if (!(translated instanceof Value)) {
+            return decodeTranslated(translated);
+        }
+        final Value v = (Value) translated;
+        if (v.hasArrayElements()) {
+            return decodeArray(v);
+        }
+        if (v.hasHashEntries()) {
+            return decodeHashEntries(v);
+        }
+        if (v.hasMembers()) {
+            return decodeMembers(v);
+        }
+        return v.as(Object.class);
+    }
+
+    /**
+     * 先按js值的种类转换，仍为Value时依次调用转换器，直到某个转换器返回了非Value的对象
+     */
+    Object translate(Value value) {
+        Object translated = codecs.fromJs(value);
+        if (!(translated instanceof Value)) {
+            return translated;
+        }
+        for (Function<Value, Object> translator : translators) {
+            translated = translator.apply((Value) translated);
+            if (!(translated instanceof Value)) {
+                return translated;
+            }
+        }
+        return translated;
+    }
+
+    /**
+     * 转换器返回的对象中可能仍包含Value
+     */
+    Object decodeTranslated(Object translated) {
+        return translated instanceof List || translated instanceof Map ? decodeObject(translated) : translated;
+    }
+
+    Map<String, Object> decodeMap(Value value) {
+        if (value.isNull()) {
+            return null;
+        }
+        return value.hasHashEntries() ? decodeHashEntries(value) : decodeMembers(value);
+    }
+
+    List<Object> decodeList(Value value) {
+        if (value.isNull()) {
+            return null;
+        }
+        if (!value.hasArrayElements()) {
+            throw new ClassCastException("结果不是数组: " + value);
+        }
+        return decodeArray(value);
+    }
+
+    /**
+     * 同decodeList，元素类型在Codecs中注册了fromJs时按该转换器转换
+     */
+    List<Object> decodeList(Value value, Type elementType) {
+        final Function<Value, ?> typed = codecs.decoderFor(rawType(elementType));
+        if (typed == null || value.isNull()) {
+            return decodeList(value);
+        }
+        if (!value.hasArrayElements()) {
+            throw new ClassCastException("结果不是数组: " + value);
+        }
+        final Function<Value, Object> item = converter(elementType);
+        final long size = value.getArraySize();
+        final List<Object> list = new ArrayList<>((int) size);
+        for (long i = 0; i < size; i++) {
+            list.add(item.apply(value.getArrayElement(i)));
+        }
+        return list;
+    }
+
+    private List<Object> decodeArray(Value value) {
+        final long size = value.getArraySize();
+        final List<Object> list = new ArrayList<>((int) size);
+        for (long i = 0; i < size; i++) {
+            list.add(decode(value.getArrayElement(i)));
+        }
+        return list;
+    }
+
+    private Map<String, Object> decodeHashEntries(Value value) {
+        final Map<String, Object> map = new HashMap<>();
+        final Value iterator = value.getHashEntriesIterator();
+        while (iterator.hasIteratorNextElement()) {
+            final Value entry = iterator.getIteratorNextElement();
+            final Value key = entry.getArrayElement(0);
+            map.put(key.isString() ? key.asString() : key.toString(), decode(entry.getArrayElement(1)));
+        }
+        return map;
+    }
+
+    private Map<String, Object> decodeMembers(Value value) {
+        final Set<String> keys = value.getMemberKeys();
+        final Map<String, Object> map = new HashMap<>(keys.size() * 4 / 3 + 1);
+        for (String key : keys) {
+            map.put(key, decode(value.getMember(key)));
+        }
+        return map;
+    }
+
+    private Object decodeObject(Object object) {
+        if (object instanceof Value) {
+            return decode((Value) object);
+        }
+        if (object instanceof List) {
+            final List<?> source = (List<?>) object;
+            final List<Object> list = new ArrayList<>(source.size());
+            for (Object item : source) {
+                list.add(decodeObject(item));
+            }
+            return list;
+        }
+        if (object instanceof Map) {
+            final Map<?, ?> source = (Map<?, ?>) object;
+            final Map<Object, Object> map = new HashMap<>(source.size() * 4 / 3 + 1);
+            for (Map.Entry<?, ?> entry : source.entrySet()) {
+                map.put(entry.getKey(), decodeObject(entry.getValue()));
+            }
+            return map;
+        }
+        return object;
+    }
+
+    /**
+     * 将value.as(...)得到的对象中的List, Map复制一份，使其在Context关闭后依然可用
+     */
+    static Object detach(Object object) {
+        if (object instanceof Value) {
+            final Value value = (Value) object;
+            if (value.hasArrayElements()) {
+                return detach(value.as(List.class));
+            }
+            if (value.hasHashEntries() || value.hasMembers()) {
+                return detach(value.as(Map.class));
+            }
+            return value.as(Object.class);
+        }
+        if (object instanceof List) {
+            final List<?> source = (List<?>) object;
+            final List<Object> list = new ArrayList<>(source.size());
+            for (Object item : source) {
+                list.add(detach(item));
+            }
+            return list;
+        }
+        if (object instanceof Map) {
+            final Map<?, ?> source = (Map<?, ?>) object;
+            final Map<Object, Object> map = new HashMap<>(source.size() * 4 / 3 + 1);
+            for (Map.Entry<?, ?> entry : source.entrySet()) {
+                map.put(entry.getKey(), detach(entry.getValue()));
+            }
+            return map;
+        }
+        return object;
+    }
+
+    <T> T decodeBean(Value value, Class<T> type) {
+        //noinspection unchecked
+        return (T) converter(type).apply(value);
+    }
+
+    /**
+     * 按目标类型生成转换函数，Bean的转换计划按类缓存
+     */
+    private Function<Value, Object> converter(Type type) {
+        final Class<?> raw = rawType(type);
+        final Function<Value, ?> typed = codecs.decoderFor(raw);
+        if (typed != null) {
+            //noinspection unchecked
+            return nullable(raw, (Function<Value, Object>) typed);
+        }
+        if (raw == Object.class) {
+            return this::decode;
+        }
+        if (raw == String.class) {
+            return v -> v.isNull() ? null : v.isString() ? v.asString() : v.toString();
+        }
+        if (raw == int.class || raw == Integer.class) {
+            return nullable(raw, Value::asInt);
+        }
+        if (raw == long.class || raw == Long.class) {
+            return nullable(raw, Value::asLong);
+        }
+        if (raw == double.class || raw == Double.class) {
+            return nullable(raw, Value::asDouble);
+        }
+        if (raw == float.class || raw == Float.class) {
+            return nullable(raw, Value::asFloat);
+        }
+        if (raw == short.class || raw == Short.class) {
+            return nullable(raw, Value::asShort);
+        }
+        if (raw == byte.class || raw == Byte.class) {
+            return nullable(raw, Value::asByte);
+        }
+        if (raw == boolean.class || raw == Boolean.class) {
+            return nullable(raw, Value::asBoolean);
+        }
+        if (raw == BigDecimal.class) {
+            return nullable(raw, v -> v.isHostObject() ? v.asHostObject() : v.fitsInLong() ? BigDecimal.valueOf(v.asLong()) : new BigDecimal(v.toString()));
+        }
+        if (raw == BigInteger.class) {
+            return nullable(raw, v -> v.isHostObject() ? v.asHostObject() : v.fitsInLong() ? BigInteger.valueOf(v.asLong()) : new BigInteger(v.toString()));
+        }
+        if (raw == LocalDateTime.class) {
+            return nullable(raw, v -> LocalDateTime.of(v.asDate(), v.asTime()));
+        }
+        if (raw == Date.class) {
+            return nullable(raw, v -> Date.from(v.asInstant()));
+        }
+        if (raw == Instant.class) {
+            return nullable(raw, Value::asInstant);
+        }
+        if (raw == LocalDate.class) {
+            return nullable(raw, Value::asDate);
+        }
+        if (raw == LocalTime.class) {
+            return nullable(raw, Value::asTime);
+        }
+        if (raw.isEnum()) {
+            return nullable(raw, v -> enumValue(raw, v.asString()));
+        }
+        if (List.class.isAssignableFrom(raw) || raw == Collection.class || raw == Iterable.class) {
+            final Function<Value, Object> item = converter(typeArgument(type, 0));
+            return v -> {
+                if (v.isNull()) {
+                    return null;
+                }
+                final long size = v.getArraySize();
+                final List<Object> list = new ArrayList<>((int) size);
+                for (long i = 0; i < size; i++) {
+                    list.add(item.apply(v.getArrayElement(i)));
+                }
+                return list;
+            };
+        }
+        if (Map.class.isAssignableFrom(raw)) {
+            final Function<Value, Object> item = converter(typeArgument(type, 1));
+            return v -> {
+                if (v.isNull()) {
+                    return null;
+                }
+                final Map<String, Object> map = new HashMap<>();
+                for (String key : v.getMemberKeys()) {
+                    map.put(key, item.apply(v.getMember(key)));
+                }
+                return map;
+            };
+        }
+        if (raw.isArray() || raw.isInterface() || raw.isPrimitive()) {
+            return nullable(raw, v -> v.as(raw));
+        }
+        return v -> {
+            if (v.isNull()) {
+                return null;
+            }
+            if (v.isHostObject() && raw.isInstance(v.asHostObject())) {
+                return v.asHostObject();
+            }
+            return plans.get(raw).create(this, v);
+        };
+    }
+
+    private static Function<Value, Object> nullable(Class<?> raw, Function<Value, Object> converter) {
+        if (raw.isPrimitive()) {
+            return converter;
+        }
+        return v -> v.isNull() ? null : converter.apply(v);
+    }
+
+    private static Object enumValue(Class<?> enumType, String name) {
+        //noinspection unchecked,rawtypes
+        return Enum.valueOf((Class) enumType, name);
+    }
+
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return rawType(((ParameterizedType) type).getRawType());
+        }
+        if (type instanceof GenericArrayType) {
+            return Object[].class;
+        }
+        return Object.class;
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            final Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (arguments.length > index) {
+                final Type argument = arguments[index];
+                return argument instanceof WildcardType ? ((WildcardType) argument).getUpperBounds()[0] : argument;
+            }
+        }
+        return Object.class;
+    }
+
+    private static final ClassValue<BeanPlan> plans = new ClassValue<BeanPlan>() {
+        @Override
+        protected BeanPlan computeValue(Class<?> type) {
+            return RecordSupport.isRecord(type) ? BeanPlan.ofRecord(type) : BeanPlan.ofBean(type);
+        }
+    };
+
+    private static final class Property {
+        private final String name;
+        private final Type type;
+        private final MethodHandle setter;
+
+        private Property(String name, Type type, MethodHandle setter) {
+            this.name = name;
+            this.type = type;
+            this.setter = setter;
+        }
+    }
+
+    /**
+     * 某个类的转换计划，属性的类型、setter以及构造器只解析一次。
+     * 属性值的转换函数依赖具体的ResultDecoder(转换器)，在第一次使用时生成并保存在该decoder上。
+     */
+    private static final class BeanPlan {
+        private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+        private final Class<?> type;
+        private final MethodHandle constructor;
+        private final Property[] properties;
+        private final boolean record;
+
+        private BeanPlan(Class<?> type, MethodHandle constructor, Property[] properties, boolean record) {
+            this.type = type;
+            this.constructor = constructor;
+            this.properties = properties;
+            this.record = record;
+        }
+
+        private static BeanPlan ofBean(Class<?> type) {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            try {
+                final Constructor<?> constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                final List<Property> properties = new ArrayList<>();
+                final Set<String> names = new HashSet<>();
+                for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+                    for (Field field : clazz.getDeclaredFields()) {
+                        final int modifiers = field.getModifiers();
+                        if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic() || !names.add(field.getName())) {
+                            continue;
+                        }
+                        properties.add(new Property(field.getName(), field.getGenericType(), setter(lookup, type, field)));
+                    }
+                }
+                return new BeanPlan(type, lookup.unreflectConstructor(constructor), properties.toArray(new Property[0]), false);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(type.getName() + " 缺少无参构造器", e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("无法访问 " + type.getName() + " 的构造器", e);
+            }
+        }
+
+        private static MethodHandle setter(MethodHandles.Lookup lookup, Class<?> type, Field field) throws IllegalAccessException {
+            final String name = field.getName();
+            final String setterName = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            try {
+                final Method method = type.getMethod(setterName, field.getType());
+                method.setAccessible(true);
+                return lookup.unreflect(method).asType(SETTER_TYPE);
+            } catch (NoSuchMethodException e) {
+                field.setAccessible(true);
+                return lookup.unreflectSetter(field).asType(SETTER_TYPE);
+            }
+        }
+
+        private static BeanPlan ofRecord(Class<?> type) {
+            final Object[] components = RecordSupport.components(type);
+            final Property[] properties = new Property[components.length];
+            final Class<?>[] parameterTypes = new Class<?>[components.length];
+            for (int i = 0; i < components.length; i++) {
+                properties[i] = new Property(RecordSupport.name(components[i]), RecordSupport.genericType(components[i]), null);
+                parameterTypes[i] = rawType(properties[i].type);
+            }
+            try {
+                final Constructor<?> constructor = type.getDeclaredConstructor(parameterTypes);
+                constructor.setAccessible(true);
+                return new BeanPlan(type, MethodHandles.lookup().unreflectConstructor(constructor), properties, true);
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                throw new IllegalArgumentException("无法访问 " + type.getName() + " 的构造器", e);
+            }
+        }
+
+        private Object create(ResultDecoder decoder, Value value) {
+            Function<Value, Object>[] propertyConverters = decoder.beanConverters.get(this);
+            if (propertyConverters == null) {
+                //noinspection unchecked
+                propertyConverters = new Function[properties.length];
+                for (int i = 0; i < properties.length; i++) {
+                    propertyConverters[i] = decoder.converter(properties[i].type);
+                }
+                decoder.beanConverters.put(this, propertyConverters);
+            }
+            try {
+                if (record) {
+                    final Object[] args = new Object[properties.length];
+                    for (int i = 0; i < properties.length; i++) {
+                        final Value member = value.getMember(properties[i].name);
+                        args[i] = member == null ? null : propertyConverters[i].apply(member);
+                    }
+                    return constructor.invokeWithArguments(args);
+                }
+                final Object bean = constructor.invoke();
+                for (int i = 0; i < properties.length; i++) {
+                    final Value member = value.getMember(properties[i].name);
+                    if (member != null) {
+                        properties[i].setter.invoke(bean, propertyConverters[i].apply(member));
+                    }
+                }
+                return bean;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException("转换为 " + type.getName() + " 失败", e);
+            }
+        }
+    }
+
+    /**
+     * 编译目标为java8，通过反射支持java16+的record
+     */
+    private static final class RecordSupport {
+        private static final Method isRecord;
+        private static final Method getRecordComponents;
+        private static final Method getName;
+        private static final Method getGenericType;
+
+        static {
+            Method isRecordMethod = null;
+            Method getRecordComponentsMethod = null;
+            Method getNameMethod = null;
+            Method getGenericTypeMethod = null;
+            try {
+                isRecordMethod = Class.class.getMethod("isRecord");
+                getRecordComponentsMethod = Class.class.getMethod("getRecordComponents");
+                final Class<?> recordComponent = Class.forName("java.lang.reflect.RecordComponent");
+                getNameMethod = recordComponent.getMethod("getName");
+                getGenericTypeMethod = recordComponent.getMethod("getGenericType");
+            } catch (NoSuchMethodException | ClassNotFoundException ignored) {
+            }
+            isRecord = isRecordMethod;
+            getRecordComponents = getRecordComponentsMethod;
+            getName = getNameMethod;
+            getGenericType = getGenericTypeMethod;
+        }
+
+        private static boolean isRecord(Class<?> type) {
+            return isRecord != null && (Boolean) invoke(isRecord, type);
+        }
+
+        private static Object[] components(Class<?> type) {
+            return (Object[]) invoke(getRecordComponents, type);
+        }
+
+        private static String name(Object component) {
+            return (String) invoke(getName, component);
+        }
+
+        private static Type genericType(Object component) {
+            return (Type) invoke(getGenericType, component);
+        }
+
+        private static Object invoke(Method method, Object target) {
+            try {
+                return method.invoke(target);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package cn.cloudself.script;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 执行各阶段的耗时记录，通过JavaScript.setMetrics设置，未设置时不计时。
+ * 内置实现为DefaultScriptMetrics(可注册到JMX)，也可以实现该接口对接其他指标库，record会在执行线程中同步调用，需线程安全且足够快
+ */
+public interface ScriptMetrics {
+    enum Phase {
+        /**
+         * 获取Context，新建或从池中借出(包括重新绑定Bean)
+         */
+        LEASE,
+        /**
+         * java变量转换并绑定到js
+         */
+        BIND,
+        /**
+         * context.eval，包括解析(未命中缓存时)以及执行
+         */
+        EVAL,
+        /**
+         * js结果转换为java对象
+         */
+        CONVERT,
+        /**
+         * 批量计算一个批次(或分块)，count为行数
+         */
+        BATCH
+    }
+
+    /**
+     * @param scriptId 脚本ID，LEASE阶段为null
+     * @param nanos 耗时
+     * @param count 处理的数量，BATCH为行数，其他为1
+     */
+    void record(Phase phase, @Nullable String scriptId, long nanos, int count);
+
+    /**
+     * 注册一个瞬时值，如Context池的空闲数、缓存的命中数
+     */
+    default void gauge(String name, LongSupplier value) {
+    }
+}
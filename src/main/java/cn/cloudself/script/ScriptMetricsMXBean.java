@@ -0,0 +1,22 @@
+package cn.cloudself.script;
+
+import java.util.Map;
+
+/**
+ * DefaultScriptMetrics的JMX接口
+ */
+public interface ScriptMetricsMXBean {
+    /**
+     * @return 按阶段汇总，key为Phase的名称
+     */
+    Map<String, DefaultScriptMetrics.Snapshot> getPhases();
+
+    /**
+     * @return 按脚本以及阶段汇总，key为 脚本ID/阶段
+     */
+    Map<String, DefaultScriptMetrics.Snapshot> getScripts();
+
+    Map<String, Long> getGauges();
+
+    void reset();
+}
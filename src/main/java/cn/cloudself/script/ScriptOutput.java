@@ -0,0 +1,142 @@
+package cn.cloudself.script;
+
+import cn.cloudself.script.util.LogFactory;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Supplier;
+
+/**
+ * 脚本中print, log的输出缓冲，每次eval(或一个批次)一份，不再逐行竞争System.out的锁。
+ * <ul>
+ *     <li>capture(() -> prepared.eval(...)): 输出留在该对象中，由调用方通过getOut(), getLog()取得</li>
+ *     <li>setDefaultCapture(maxChars)或系统属性 script-kit.output.capture-max-chars: 每次eval结束时一次性写出到System.out以及日志</li>
+ * </ul>
+ * 超过maxChars个字符的部分被丢弃
+ * <pre><code>
+ * final ScriptOutput output = new ScriptOutput(64 * 1024);
+ * final Integer result = output.capture(() -> prepared.eval(vars, Integer.class));
+ * output.getOut();
+ * </code></pre>
+ */
+public final class ScriptOutput {
+    private static final LogFactory.Log log = LogFactory.getAsyncLog(CommonFunctionsForScript.class.getName(), LogFactory.AsyncLog.Overflow.CALLER_RUNS);
+    private static final ThreadLocal<ScriptOutput> capturing = new ThreadLocal<>();
+    private static volatile int defaultMaxChars = Integer.getInteger("script-kit.output.capture-max-chars", 0);
+
+    private final int maxChars;
+    private final boolean flushOnClose;
+    private final StringBuilder out = new StringBuilder();
+    private final StringBuilder logs = new StringBuilder();
+    private int size = 0;
+    private boolean truncated = false;
+
+    /**
+     * @param maxChars print与log合计的最大字符数
+     */
+    public ScriptOutput(int maxChars) {
+        this(maxChars, false);
+    }
+
+    private ScriptOutput(int maxChars, boolean flushOnClose) {
+        if (maxChars <= 0) {
+            throw new IllegalArgumentException("maxChars必须大于0");
+        }
+        this.maxChars = maxChars;
+        this.flushOnClose = flushOnClose;
+    }
+
+    /**
+     * @param maxChars 大于0时，未使用capture的eval也会缓冲输出，结束时一次性写出；0表示直接输出
+     */
+    public static void setDefaultCapture(int maxChars) {
+        defaultMaxChars = maxChars;
+    }
+
+    /**
+     * 在当前线程执行evaluation，其中的eval(包括并行批量计算的工作线程)的输出写入该对象
+     */
+    public <T> T capture(Supplier<T> evaluation) {
+        final ScriptOutput previous = capturing.get();
+        capturing.set(this);
+        try {
+            return evaluation.get();
+        } finally {
+            if (previous == null) {
+                capturing.remove();
+            } else {
+                capturing.set(previous);
+            }
+        }
+    }
+
+    public synchronized String getOut() {
+        return out.toString();
+    }
+
+    public synchronized String getLog() {
+        return logs.toString();
+    }
+
+    /**
+     * @return 是否有输出因超过maxChars被丢弃
+     */
+    public synchronized boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * 新建EvalScope时调用
+     * @return capture中的对象，或按默认设置新建的对象，都没有时为null
+     */
+    @Nullable
+    static ScriptOutput forNewScope() {
+        final ScriptOutput output = capturing.get();
+        if (output != null) {
+            return output;
+        }
+        final int maxChars = defaultMaxChars;
+        return maxChars > 0 ? new ScriptOutput(maxChars, true) : null;
+    }
+
+    synchronized void print(Object obj) {
+        append(out, String.valueOf(obj));
+    }
+
+    synchronized void log(Object obj) {
+        append(logs, String.valueOf(obj));
+    }
+
+    private void append(StringBuilder target, String line) {
+        if (truncated) {
+            return;
+        }
+        final int remaining = maxChars - size;
+        if (line.length() + 1 > remaining) {
+            target.append(line, 0, Math.max(0, remaining));
+            size = maxChars;
+            truncated = true;
+            return;
+        }
+        target.append(line).append('\n');
+        size += line.length() + 1;
+    }
+
+    /**
+     * EvalScope关闭时调用，只有按默认设置新建的对象会写出
+     */
+    void close() {
+        if (!flushOnClose) {
+            return;
+        }
+        if (out.length() > 0) {
+            System.out.print(out);
+        }
+        if (logs.length() > 0) {
+            final int end = logs.charAt(logs.length() - 1) == '\n' ? logs.length() - 1 : logs.length();
+            log.info(logs.substring(0, end));
+        }
+        if (truncated) {
+            log.warn("脚本输出超过" + maxChars + "个字符，已截断");
+        }
+    }
+}
@@ -1,78 +1,71 @@
 package cn.cloudself.script.util;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 public class BeanHelper {
     private BeanHelper() {}
 
-    private final Set<String> shouldIgnoreFields = new HashSet<String>() {{
+    private static final Set<String> shouldIgnoreFields = new HashSet<String>() {{
         add("serialVersionUID");
     }};
 
+    private int maxDepth = Integer.MAX_VALUE;
+
     public static BeanHelper createDefault() {
         return new BeanHelper();
     }
 
+    /**
+     * @param maxDepth 最大转换层数，超过该层数的属性值原样保留，不再展开，顶层Bean为第1层
+     */
+    public BeanHelper setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * 将Bean递归转换为Map，每个类的属性访问方式只解析一次
+     * @throws RuntimeException 存在私有且无getter的属性，或存在循环引用
+     */
     public Map<String, Object> toMapDeep(Object bean) {
         if (bean == null) {
             return null;
         }
+        return toMapDeep(bean, 1, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
 
+    private Map<String, Object> toMapDeep(Object bean, int depth, Set<Object> path) {
+        enter(bean, path);
+        final Property[] properties = plans.get(bean.getClass());
         final Map<String, Object> map = new HashMap<>();
-
-        final Class<?> clazz = bean.getClass();
-        Class<?> classOrSuperClass = clazz;
-        while (classOrSuperClass != null) {
-            final Field[] declaredFields = classOrSuperClass.getDeclaredFields();
-            for (Field field : declaredFields) {
-                final String key = field.getName();
-                if (shouldIgnoreFields.contains(key)) {
-                    continue;
-                }
-                final Object value;
-                if (canAccess(field, bean)) {
-                    try {
-                        value = field.get(bean);
-                    } catch (IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
-                } else {
-                    final String getterMethodName = "get" + Character.toUpperCase(key.charAt(0)) + key.substring(1);
-                    Method getter;
-                    try {
-                        getter = clazz.getDeclaredMethod(getterMethodName);
-                    } catch (NoSuchMethodException e) {
-                        try {
-                            getter = clazz.getMethod(getterMethodName);
-                        } catch (NoSuchMethodException e2) {
-                            throw new RuntimeException("无法访问私有且无getter的属性 " + key);
-                        }
-                    }
-                    try {
-                        value = getter.invoke(bean);
-                    } catch (IllegalAccessException | InvocationTargetException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-                map.put(key, trans(value));
-            }
-            classOrSuperClass = classOrSuperClass.getSuperclass();
+        for (Property property : properties) {
+            map.put(property.name, trans(property.get(bean), depth, path));
         }
+        path.remove(bean);
         return map;
     }
 
-    private Object trans(Object value) {
+    private Object trans(Object value, int depth, Set<Object> path) {
         if (
                 value == null ||
                 value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long || value instanceof Float || value instanceof Double ||
@@ -83,34 +76,328 @@ public class BeanHelper {
                 value instanceof Duration
         ) {
             return value;
-        } else if (value instanceof Iterable) {
-            return StreamSupport.stream(((Iterable<?>) value).spliterator(), false)
-                    .map(this::trans)
-                    .collect(Collectors.toList());
+        }
+        if (depth >= maxDepth) {
+            return value;
+        }
+        final int next = depth + 1;
+        if (value instanceof Iterable) {
+            enter(value, path);
+            final List<Object> list = value instanceof Collection ? new ArrayList<>(((Collection<?>) value).size()) : new ArrayList<>();
+            for (Object item : (Iterable<?>) value) {
+                list.add(trans(item, next, path));
+            }
+            path.remove(value);
+            return list;
         } else if (value instanceof Object[]) {
-            return Arrays.stream((Object[]) value)
-                    .map(this::trans)
-                    .collect(Collectors.toList());
+            enter(value, path);
+            final Object[] array = (Object[]) value;
+            final List<Object> list = new ArrayList<>(array.length);
+            for (Object item : array) {
+                list.add(trans(item, next, path));
+            }
+            path.remove(value);
+            return list;
         } else if (value instanceof Map) {
+            enter(value, path);
             final Map<String, Object> map = new HashMap<>();
             for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
                 final Object k = entry.getKey();
                 final Object v = entry.getValue();
-                map.put(k + "", trans(v));
+                map.put(k + "", trans(v, next, path));
             }
+            path.remove(value);
             return map;
         } else {
-            return toMapDeep(value);
+            return toMapDeep(value, next, path);
+        }
+    }
+
+    /**
+     * 按toMapDeep相同的属性规则将对象直接序列化为JSON，不生成中间的Map, List
+     * Date序列化为ISO-8601的UTC时间，LocalDate(Time), LocalTime, Duration序列化为ISO-8601字符串，超过maxDepth的值序列化为toString()
+     */
+    public void writeJson(Object value, Writer writer) throws IOException {
+        writeJson(value, 1, Collections.newSetFromMap(new IdentityHashMap<>()), writer);
+    }
+
+    /**
+     * 同上，以UTF-8写入buffer
+     * @throws BufferOverflowException buffer剩余空间不足
+     */
+    public void writeJson(Object value, ByteBuffer buffer) {
+        try {
+            writeJson(value, new ByteBufferWriter(buffer));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public String toJson(Object value) {
+        final StringWriter writer = new StringWriter();
+        try {
+            writeJson(value, writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    private void writeJson(Object value, int depth, Set<Object> path, Writer writer) throws IOException {
+        if (value == null) {
+            writer.write("null");
+        } else if (value instanceof String || value instanceof Character || value instanceof Enum) {
+            writeString(value.toString(), writer);
+        } else if (value instanceof Double || value instanceof Float) {
+            final double d = ((Number) value).doubleValue();
+            writer.write(Double.isNaN(d) || Double.isInfinite(d) ? "null" : value.toString());
+        } else if (value instanceof Number || value instanceof Boolean) {
+            writer.write(value.toString());
+        } else if (value instanceof Date) {
+            writeString(Instant.ofEpochMilli(((Date) value).getTime()).toString(), writer);
+        } else if (value instanceof LocalDate || value instanceof LocalTime || value instanceof LocalDateTime || value instanceof Duration) {
+            writeString(value.toString(), writer);
+        } else if (depth > maxDepth) {
+            writeString(value.toString(), writer);
+        } else if (value instanceof Iterable) {
+            enter(value, path);
+            writer.write('[');
+            boolean first = true;
+            for (Object item : (Iterable<?>) value) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writeJson(item, depth + 1, path, writer);
+            }
+            writer.write(']');
+            path.remove(value);
+        } else if (value.getClass().isArray()) {
+            enter(value, path);
+            writer.write('[');
+            final int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeJson(Array.get(value, i), depth + 1, path, writer);
+            }
+            writer.write(']');
+            path.remove(value);
+        } else if (value instanceof Map) {
+            enter(value, path);
+            writer.write('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writeString(entry.getKey() + "", writer);
+                writer.write(':');
+                writeJson(entry.getValue(), depth + 1, path, writer);
+            }
+            writer.write('}');
+            path.remove(value);
+        } else {
+            enter(value, path);
+            writer.write('{');
+            boolean first = true;
+            for (Property property : plans.get(value.getClass())) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writeString(property.name, writer);
+                writer.write(':');
+                writeJson(property.get(value), depth + 1, path, writer);
+            }
+            writer.write('}');
+            path.remove(value);
+        }
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static void writeString(String s, Writer writer) throws IOException {
+        writer.write('"');
+        int start = 0;
+        final int length = s.length();
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            final String escaped;
+            if (c == '"') {
+                escaped = "\\\"";
+            } else if (c == '\\') {
+                escaped = "\\\\";
+            } else if (c == '\n') {
+                escaped = "\\n";
+            } else if (c == '\r') {
+                escaped = "\\r";
+            } else if (c == '\t') {
+                escaped = "\\t";
+            } else if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                escaped = "\\u" + HEX[c >> 12 & 0xF] + HEX[c >> 8 & 0xF] + HEX[c >> 4 & 0xF] + HEX[c & 0xF];
+            } else {
+                continue;
+            }
+            writer.write(s, start, i - start);
+            writer.write(escaped);
+            start = i + 1;
+        }
+        writer.write(s, start, length - start);
+        writer.write('"');
+    }
+
+    /**
+     * 将字符以UTF-8直接编码进ByteBuffer
+     */
+    private static class ByteBufferWriter extends Writer {
+        private final ByteBuffer buffer;
+        private char highSurrogate = 0;
+
+        private ByteBufferWriter(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int c) {
+            final char ch = (char) c;
+            if (highSurrogate != 0) {
+                final char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(ch)) {
+                    final int codePoint = Character.toCodePoint(high, ch);
+                    buffer.put((byte) (0xF0 | codePoint >> 18));
+                    buffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                    buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                    buffer.put((byte) (0x80 | codePoint & 0x3F));
+                    return;
+                }
+                buffer.put((byte) '?');
+            }
+            if (ch < 0x80) {
+                buffer.put((byte) ch);
+            } else if (ch < 0x800) {
+                buffer.put((byte) (0xC0 | ch >> 6));
+                buffer.put((byte) (0x80 | ch & 0x3F));
+            } else if (Character.isHighSurrogate(ch)) {
+                highSurrogate = ch;
+            } else if (Character.isLowSurrogate(ch)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | ch >> 12));
+                buffer.put((byte) (0x80 | ch >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | ch & 0x3F));
+            }
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(str.charAt(i));
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void enter(Object value, Set<Object> path) {
+        if (!path.add(value)) {
+            throw new RuntimeException("存在循环引用 " + value.getClass().getName());
+        }
+    }
+
+    private static final ClassValue<Property[]> plans = new ClassValue<Property[]>() {
+        @Override
+        protected Property[] computeValue(Class<?> clazz) {
+            return plan(clazz);
+        }
+    };
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static class Property {
+        private final String name;
+        private final MethodHandle getter;
+
+        private Property(String name, MethodHandle getter) {
+            this.name = name;
+            this.getter = getter;
+        }
+
+        private Object get(Object bean) {
+            try {
+                return (Object) getter.invokeExact(bean);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * 可直接访问的字段直接读取，否则使用运行时类上的getter
+     */
+    private static Property[] plan(Class<?> clazz) {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        final List<Property> properties = new ArrayList<>();
+        Class<?> classOrSuperClass = clazz;
+        while (classOrSuperClass != null) {
+            for (Field field : classOrSuperClass.getDeclaredFields()) {
+                final String key = field.getName();
+                if (shouldIgnoreFields.contains(key) || Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                    continue;
+                }
+                MethodHandle getter;
+                try {
+                    getter = lookup.unreflectGetter(field);
+                } catch (IllegalAccessException e) {
+                    getter = getter(lookup, clazz, key, field.getType() == boolean.class);
+                }
+                properties.add(new Property(key, getter.asType(GETTER_TYPE)));
+            }
+            classOrSuperClass = classOrSuperClass.getSuperclass();
         }
+        return properties.toArray(new Property[0]);
     }
 
-    private static Boolean canAccess(Field field, Object obj) {
+    private static MethodHandle getter(MethodHandles.Lookup lookup, Class<?> clazz, String key, boolean primitiveBoolean) {
+        final String capitalized = Character.toUpperCase(key.charAt(0)) + key.substring(1);
+        final String getterMethodName = "get" + capitalized;
+        final String isMethodName = primitiveBoolean ? "is" + capitalized : getterMethodName;
+        Method getter = null;
+        for (Class<?> c = clazz; c != null && getter == null; c = c.getSuperclass()) {
+            for (Method method : c.getDeclaredMethods()) {
+                final String name = method.getName();
+                if ((name.equals(getterMethodName) || name.equals(isMethodName)) && method.getParameterCount() == 0) {
+                    getter = method;
+                    break;
+                }
+            }
+        }
+        if (getter == null) {
+            throw new RuntimeException("无法访问私有且无getter的属性 " + key);
+        }
         try {
-            //noinspection ResultOfMethodCallIgnored
-            field.get(obj);
-            return true;
-        } catch (IllegalAccessException e) {
-            return false;
+            getter.setAccessible(true);
+            return lookup.unreflect(getter);
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new RuntimeException("无法访问属性 " + key + " 的getter", e);
         }
     }
 }
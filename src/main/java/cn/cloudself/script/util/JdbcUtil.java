@@ -0,0 +1,241 @@
+package cn.cloudself.script.util;
+
+import javax.sql.DataSource;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * 基于PreparedStatement的参数化查询，参数按?的顺序绑定。
+ * 存在spring-jdbc时通过DataSourceUtils获取、释放连接，与query-pro一样参与当前线程的Spring事务
+ */
+public class JdbcUtil {
+    private JdbcUtil() {}
+
+    private static final MethodHandle springGetConnection;
+    private static final MethodHandle springReleaseConnection;
+
+    static {
+        MethodHandle getConnection = null;
+        MethodHandle releaseConnection = null;
+        try {
+            final Class<?> utils = Class.forName("org.springframework.jdbc.datasource.DataSourceUtils", false, JdbcUtil.class.getClassLoader());
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            getConnection = lookup.findStatic(utils, "getConnection", MethodType.methodType(Connection.class, DataSource.class));
+            releaseConnection = lookup.findStatic(utils, "releaseConnection", MethodType.methodType(void.class, Connection.class, DataSource.class));
+        } catch (ClassNotFoundException | LinkageError | NoSuchMethodException | IllegalAccessException ignored) {
+        }
+        springGetConnection = getConnection;
+        springReleaseConnection = releaseConnection;
+    }
+
+    /**
+     * 存在Spring事务时返回事务中的连接，需通过releaseConnection释放
+     */
+    public static Connection getConnection(DataSource dataSource) throws SQLException {
+        if (springGetConnection == null) {
+            return dataSource.getConnection();
+        }
+        try {
+            return (Connection) springGetConnection.invokeExact(dataSource);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 事务中的连接由事务管理器关闭，其他连接直接关闭
+     */
+    public static void releaseConnection(Connection connection, DataSource dataSource) throws SQLException {
+        if (springReleaseConnection == null) {
+            connection.close();
+            return;
+        }
+        try {
+            springReleaseConnection.invokeExact(connection, dataSource);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param maxRows 最多返回的行数，0表示不限制
+     * @return 每行一个LinkedHashMap，key为列的label
+     */
+    public static List<Map<String, Object>> query(DataSource dataSource, String sql, List<?> params, int maxRows) {
+        try {
+            final Connection connection = getConnection(dataSource);
+            try (final PreparedStatement statement = connection.prepareStatement(sql)) {
+                bind(statement, params);
+                statement.setMaxRows(maxRows);
+                try (final ResultSet resultSet = statement.executeQuery()) {
+                    final String[] labels = labels(resultSet.getMetaData());
+                    final List<Map<String, Object>> rows = new ArrayList<>();
+                    while (resultSet.next()) {
+                        rows.add(row(resultSet, labels));
+                    }
+                    return rows;
+                }
+            } finally {
+                releaseConnection(connection, dataSource);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("执行SQL失败: " + sql, e);
+        }
+    }
+
+    /**
+     * 打开一个只进的游标，遍历结束或出错时自动关闭，提前结束时需调用close()
+     * @param fetchSize 每次从数据库获取的行数，部分驱动(如PostgreSQL)需关闭自动提交才会生效，游标期间会临时关闭自动提交
+     */
+    public static Cursor cursor(DataSource dataSource, String sql, List<?> params, int fetchSize) {
+        Connection connection = null;
+        try {
+            connection = getConnection(dataSource);
+            return new Cursor(dataSource, connection, sql, params, fetchSize);
+        } catch (SQLException | RuntimeException e) {
+            if (connection != null) {
+                try {
+                    releaseConnection(connection, dataSource);
+                } catch (SQLException | RuntimeException closeException) {
+                    e.addSuppressed(closeException);
+                }
+            }
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException("执行SQL失败: " + sql, e);
+        }
+    }
+
+    public static class Cursor implements Iterator<Map<String, Object>>, AutoCloseable {
+        private final DataSource dataSource;
+        private final Connection connection;
+        private final boolean autoCommit;
+        private final PreparedStatement statement;
+        private final ResultSet resultSet;
+        private final String[] labels;
+        private final String sql;
+        private Boolean hasNext;
+        private boolean closed = false;
+        private Runnable onClose;
+
+        private Cursor(DataSource dataSource, Connection connection, String sql, List<?> params, int fetchSize) throws SQLException {
+            this.dataSource = dataSource;
+            this.connection = connection;
+            this.sql = sql;
+            this.autoCommit = connection.getAutoCommit();
+            if (autoCommit) {
+                connection.setAutoCommit(false);
+            }
+            try {
+                this.statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                bind(statement, params);
+                statement.setFetchSize(fetchSize);
+                this.resultSet = statement.executeQuery();
+                this.labels = labels(resultSet.getMetaData());
+            } catch (SQLException | RuntimeException e) {
+                if (autoCommit) {
+                    connection.setAutoCommit(true);
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (hasNext == null) {
+                if (closed) {
+                    return false;
+                }
+                try {
+                    hasNext = resultSet.next();
+                } catch (SQLException e) {
+                    close();
+                    throw new RuntimeException("读取结果失败: " + sql, e);
+                }
+                if (!hasNext) {
+                    close();
+                }
+            }
+            return hasNext;
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            hasNext = null;
+            try {
+                return row(resultSet, labels);
+            } catch (SQLException e) {
+                close();
+                throw new RuntimeException("读取结果失败: " + sql, e);
+            }
+        }
+
+        /**
+         * @param onClose 游标关闭(遍历结束, 出错或调用close())后调用
+         */
+        public Cursor onClose(Runnable onClose) {
+            this.onClose = onClose;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            hasNext = false;
+            try {
+                try {
+                    resultSet.close();
+                    statement.close();
+                    if (autoCommit) {
+                        connection.rollback();
+                        connection.setAutoCommit(true);
+                    }
+                } finally {
+                    releaseConnection(connection, dataSource);
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("关闭游标失败: " + sql, e);
+            } finally {
+                if (onClose != null) {
+                    onClose.run();
+                }
+            }
+        }
+    }
+
+    public static void bind(PreparedStatement statement, List<?> params) throws SQLException {
+        if (params == null) {
+            return;
+        }
+        for (int i = 0; i < params.size(); i++) {
+            statement.setObject(i + 1, params.get(i));
+        }
+    }
+
+    public static String[] labels(ResultSetMetaData metaData) throws SQLException {
+        final String[] labels = new String[metaData.getColumnCount()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = metaData.getColumnLabel(i + 1);
+        }
+        return labels;
+    }
+
+    public static Map<String, Object> row(ResultSet resultSet, String[] labels) throws SQLException {
+        final Map<String, Object> row = new LinkedHashMap<>(labels.length * 4 / 3 + 1);
+        for (int i = 0; i < labels.length; i++) {
+            row.put(labels[i], resultSet.getObject(i + 1));
+        }
+        return row;
+    }
+}
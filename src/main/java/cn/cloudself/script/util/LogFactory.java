@@ -8,6 +8,15 @@ import org.apache.logging.log4j.spi.ExtendedLogger;
 import org.apache.logging.log4j.spi.LoggerContext;
 
 import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
@@ -24,6 +33,454 @@ public abstract class LogFactory {
         return LogAdapter.createLog(name);
     }
 
+    /**
+     * 异步日志，见AsyncLog
+     */
+    public static AsyncLog getAsyncLog(Class<?> clazz) {
+        return getAsyncLog(clazz.getName());
+    }
+
+    public static AsyncLog getAsyncLog(String name) {
+        return new AsyncLog(getLog(name), AsyncLog.defaultOverflow);
+    }
+
+    public static AsyncLog getAsyncLog(String name, AsyncLog.Overflow overflow) {
+        return new AsyncLog(getLog(name), overflow);
+    }
+
+    /**
+     * 替换pattern中的{}占位符，多余的参数忽略
+     */
+    static String format(String pattern, Object[] args) {
+        if (args == null || args.length == 0) {
+            return pattern;
+        }
+        final StringBuilder sb = new StringBuilder(pattern.length() + 16 * args.length);
+        int from = 0;
+        for (Object arg : args) {
+            final int i = pattern.indexOf("{}", from);
+            if (i < 0) {
+                break;
+            }
+            sb.append(pattern, from, i);
+            sb.append(arg instanceof Object[] ? Arrays.deepToString((Object[]) arg) : String.valueOf(arg));
+            from = i + 2;
+        }
+        sb.append(pattern, from, pattern.length());
+        return sb.toString();
+    }
+
+    /**
+     * 与slf4j一致，最后一个参数是Throwable且没有对应的占位符时作为异常输出
+     */
+    static Throwable throwableOf(String pattern, Object[] args) {
+        if (args == null || args.length == 0 || !(args[args.length - 1] instanceof Throwable)) {
+            return null;
+        }
+        int placeholders = 0;
+        for (int i = pattern.indexOf("{}"); i >= 0; i = pattern.indexOf("{}", i + 2)) {
+            placeholders++;
+        }
+        return placeholders < args.length ? (Throwable) args[args.length - 1] : null;
+    }
+
+    /**
+     * 包装一个同步的Log，日志放入所有AsyncLog共用的有界环形队列，由一个后台线程按顺序写出，调用线程不等待appender的I/O。
+     * <ul>
+     *     <li>级别判断在调用线程完成，未启用的级别不会入队；带参数的消息在后台线程格式化</li>
+     *     <li>String, Number, Boolean等不可变的消息和参数原样入队，其他对象在调用线程转为字符串，避免在其他线程访问js对象</li>
+     *     <li>队列满时按Overflow处理</li>
+     *     <li>后台线程中backend取到的调用位置不是原调用方，需要时可通过系统属性 script-kit.log.async.location=true 将调用位置(通过StackWalker获取)写入消息</li>
+     * </ul>
+     * 队列容量以及默认的Overflow可通过系统属性 script-kit.log.async.buffer-size, script-kit.log.async.overflow 调整，JVM退出前会尽量写出剩余日志
+     */
+    public static final class AsyncLog implements Log {
+        public enum Overflow {
+            /**
+             * 丢弃新日志
+             */
+            DROP,
+            /**
+             * 丢弃队列中最早的日志
+             */
+            DISCARD_OLDEST,
+            /**
+             * 等待队列有空位
+             */
+            BLOCK,
+            /**
+             * 在调用线程同步写出
+             */
+            CALLER_RUNS
+        }
+
+        private enum Lvl {
+            FATAL, ERROR, WARN, INFO, DEBUG, TRACE
+        }
+
+        private static final String FQCN = AsyncLog.class.getName();
+        private static final Overflow defaultOverflow = Overflow.valueOf(System.getProperty("script-kit.log.async.overflow", "DROP").toUpperCase());
+        private static final boolean includeLocation = Boolean.getBoolean("script-kit.log.async.location");
+        private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(Integer.getInteger("script-kit.log.async.buffer-size", 8192));
+        private static final AtomicLong pending = new AtomicLong();
+        private static volatile Thread worker;
+
+        private final Log delegate;
+        private final Overflow overflow;
+        private final LongAdder dropped = new LongAdder();
+
+        private AsyncLog(Log delegate, Overflow overflow) {
+            this.delegate = delegate;
+            this.overflow = overflow;
+        }
+
+        /**
+         * @return 该Log因队列已满丢弃的日志数
+         */
+        public long getDroppedCount() {
+            return dropped.sum();
+        }
+
+        /**
+         * 等待队列中的日志写出
+         * @return 超时前是否已全部写出
+         */
+        public static boolean flush(long timeoutMillis) {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (pending.get() > 0) {
+                if (System.nanoTime() - deadline > 0) {
+                    return false;
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean isFatalEnabled() {
+            return this.delegate.isFatalEnabled();
+        }
+
+        public boolean isErrorEnabled() {
+            return this.delegate.isErrorEnabled();
+        }
+
+        public boolean isWarnEnabled() {
+            return this.delegate.isWarnEnabled();
+        }
+
+        public boolean isInfoEnabled() {
+            return this.delegate.isInfoEnabled();
+        }
+
+        public boolean isDebugEnabled() {
+            return this.delegate.isDebugEnabled();
+        }
+
+        public boolean isTraceEnabled() {
+            return this.delegate.isTraceEnabled();
+        }
+
+        public void fatal(Object message) {
+            this.log(Lvl.FATAL, message, null, null);
+        }
+
+        public void fatal(Object message, Throwable exception) {
+            this.log(Lvl.FATAL, message, null, exception);
+        }
+
+        public void error(Object message) {
+            this.log(Lvl.ERROR, message, null, null);
+        }
+
+        public void error(Object message, Throwable exception) {
+            this.log(Lvl.ERROR, message, null, exception);
+        }
+
+        public void error(String format, Object... args) {
+            this.log(Lvl.ERROR, format, args, null);
+        }
+
+        public void warn(Object message) {
+            this.log(Lvl.WARN, message, null, null);
+        }
+
+        public void warn(Object message, Throwable exception) {
+            this.log(Lvl.WARN, message, null, exception);
+        }
+
+        public void warn(String format, Object... args) {
+            this.log(Lvl.WARN, format, args, null);
+        }
+
+        public void info(Object message) {
+            this.log(Lvl.INFO, message, null, null);
+        }
+
+        public void info(Object message, Throwable exception) {
+            this.log(Lvl.INFO, message, null, exception);
+        }
+
+        public void info(String format, Object... args) {
+            this.log(Lvl.INFO, format, args, null);
+        }
+
+        public void debug(Object message) {
+            this.log(Lvl.DEBUG, message, null, null);
+        }
+
+        public void debug(Object message, Throwable exception) {
+            this.log(Lvl.DEBUG, message, null, exception);
+        }
+
+        public void debug(String format, Object... args) {
+            this.log(Lvl.DEBUG, format, args, null);
+        }
+
+        public void trace(Object message) {
+            this.log(Lvl.TRACE, message, null, null);
+        }
+
+        public void trace(Object message, Throwable exception) {
+            this.log(Lvl.TRACE, message, null, exception);
+        }
+
+        public void trace(String format, Object... args) {
+            this.log(Lvl.TRACE, format, args, null);
+        }
+
+        private boolean isEnabled(Lvl level) {
+            switch (level) {
+                case FATAL:
+                    return this.delegate.isFatalEnabled();
+                case ERROR:
+                    return this.delegate.isErrorEnabled();
+                case WARN:
+                    return this.delegate.isWarnEnabled();
+                case INFO:
+                    return this.delegate.isInfoEnabled();
+                case DEBUG:
+                    return this.delegate.isDebugEnabled();
+                default:
+                    return this.delegate.isTraceEnabled();
+            }
+        }
+
+        private void log(Lvl level, Object message, Object[] args, Throwable exception) {
+            if (!this.isEnabled(level)) {
+                return;
+            }
+            if (args != null) {
+                final Object[] snapshot = args.clone();
+                for (int i = 0; i < snapshot.length; i++) {
+                    if (!(snapshot[i] instanceof Throwable)) {
+                        snapshot[i] = snapshot(snapshot[i]);
+                    }
+                }
+                args = snapshot;
+            }
+            final StackTraceElement caller = includeLocation ? Callers.find(FQCN) : null;
+            final Entry entry = new Entry(this, level, snapshot(message), args, exception, caller);
+            switch (this.overflow) {
+                case CALLER_RUNS:
+                    if (!queue.offer(entry)) {
+                        entry.write();
+                        return;
+                    }
+                    break;
+                case BLOCK:
+                    try {
+                        queue.put(entry);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        this.dropped.increment();
+                        return;
+                    }
+                    break;
+                case DISCARD_OLDEST:
+                    while (!queue.offer(entry)) {
+                        final Entry oldest = queue.poll();
+                        if (oldest != null) {
+                            oldest.owner.dropped.increment();
+                            pending.decrementAndGet();
+                        }
+                    }
+                    break;
+                default:
+                    if (!queue.offer(entry)) {
+                        this.dropped.increment();
+                        return;
+                    }
+            }
+            pending.incrementAndGet();
+            if (worker == null) {
+                startWorker();
+            }
+        }
+
+        private static Object snapshot(Object value) {
+            if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+                    || value instanceof Character || value instanceof Enum) {
+                return value;
+            }
+            return value instanceof Object[] ? Arrays.deepToString((Object[]) value) : String.valueOf(value);
+        }
+
+        private static synchronized void startWorker() {
+            if (worker != null) {
+                return;
+            }
+            final Thread thread = new Thread(AsyncLog::drain, "script-kit-async-log");
+            thread.setDaemon(true);
+            thread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(1000)));
+            worker = thread;
+        }
+
+        private static void drain() {
+            while (true) {
+                final Entry entry;
+                try {
+                    entry = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    entry.write();
+                } catch (Throwable ignored) {
+                    // 不能因为某个appender出错而停止后台线程
+                } finally {
+                    pending.decrementAndGet();
+                }
+            }
+        }
+
+        private static final class Entry {
+            private final AsyncLog owner;
+            private final Lvl level;
+            private final Object message;
+            private final Object[] args;
+            private final Throwable exception;
+            private final StackTraceElement caller;
+
+            private Entry(AsyncLog owner, Lvl level, Object message, Object[] args, Throwable exception, StackTraceElement caller) {
+                this.owner = owner;
+                this.level = level;
+                this.message = message;
+                this.args = args;
+                this.exception = exception;
+                this.caller = caller;
+            }
+
+            private void write() {
+                Object message = this.message;
+                Throwable exception = this.exception;
+                if (this.args != null) {
+                    final String pattern = String.valueOf(message);
+                    message = format(pattern, this.args);
+                    exception = throwableOf(pattern, this.args);
+                }
+                if (this.caller != null) {
+                    message = this.caller.getClassName() + '.' + this.caller.getMethodName() + ':' + this.caller.getLineNumber() + ' ' + message;
+                }
+                final Log log = this.owner.delegate;
+                switch (this.level) {
+                    case FATAL:
+                        log.fatal(message, exception);
+                        break;
+                    case ERROR:
+                        log.error(message, exception);
+                        break;
+                    case WARN:
+                        log.warn(message, exception);
+                        break;
+                    case INFO:
+                        log.info(message, exception);
+                        break;
+                    case DEBUG:
+                        log.debug(message, exception);
+                        break;
+                    default:
+                        log.trace(message, exception);
+                }
+            }
+        }
+    }
+
+    /**
+     * 查找调用方，Java 9及以上使用StackWalker，只遍历到调用方所在的栈帧为止，否则退化为Throwable的完整堆栈
+     */
+    private static final class Callers {
+        private static final String PREFIX = LogFactory.class.getName();
+        private static final Object walker;
+        private static final Method walk;
+        private static final Method getClassName;
+        private static final Method toStackTraceElement;
+
+        static {
+            Object w = null;
+            Method wk = null, cn = null, st = null;
+            try {
+                final Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+                final Class<?> frameClass = Class.forName("java.lang.StackWalker$StackFrame");
+                wk = walkerClass.getMethod("walk", Function.class);
+                cn = frameClass.getMethod("getClassName");
+                st = frameClass.getMethod("toStackTraceElement");
+                w = walkerClass.getMethod("getInstance").invoke(null);
+            } catch (Exception ignored) {
+                // Java 8
+            }
+            walker = w;
+            walk = wk;
+            getClassName = cn;
+            toStackTraceElement = st;
+        }
+
+        /**
+         * @return fqcn之后第一个不属于LogFactory的栈帧，找不到时为null
+         */
+        static StackTraceElement find(String fqcn) {
+            if (walker != null) {
+                try {
+                    final Function<java.util.stream.Stream<Object>, StackTraceElement> finder = frames -> {
+                        try {
+                            boolean found = false;
+                            for (Iterator<Object> it = frames.iterator(); it.hasNext(); ) {
+                                final Object frame = it.next();
+                                final String className = (String) getClassName.invoke(frame);
+                                if (fqcn.equals(className)) {
+                                    found = true;
+                                } else if (found && !className.startsWith(PREFIX)) {
+                                    return (StackTraceElement) toStackTraceElement.invoke(frame);
+                                }
+                            }
+                            return null;
+                        } catch (ReflectiveOperationException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    };
+                    return (StackTraceElement) walk.invoke(walker, finder);
+                } catch (ReflectiveOperationException | IllegalStateException ignored) {
+                    // 退化为Throwable
+                }
+            }
+            boolean found = false;
+            for (StackTraceElement element : new Throwable().getStackTrace()) {
+                final String className = element.getClassName();
+                if (fqcn.equals(className)) {
+                    found = true;
+                } else if (found && !className.startsWith(PREFIX)) {
+                    return element;
+                }
+            }
+            return null;
+        }
+    }
+
     public static class LogAdapter {
         private static final String LOG4J_SPI = "org.apache.logging.log4j.spi.ExtendedLogger";
         private static final String LOG4J_SLF4J_PROVIDER = "org.apache.logging.slf4j.SLF4JProvider";
@@ -108,27 +565,9 @@ public abstract class LogFactory {
             }
 
             private void resolve() {
-                StackTraceElement[] stack = (new Throwable()).getStackTrace();
-                String sourceClassName = null;
-                String sourceMethodName = null;
-                boolean found = false;
-                StackTraceElement[] var5 = stack;
-                int var6 = stack.length;
-
-                for(int var7 = 0; var7 < var6; ++var7) {
-                    StackTraceElement element = var5[var7];
-                    String className = element.getClassName();
-                    if (FQCN.equals(className)) {
-                        found = true;
-                    } else if (found) {
-                        sourceClassName = className;
-                        sourceMethodName = element.getMethodName();
-                        break;
-                    }
-                }
-
-                this.setSourceClassName(sourceClassName);
-                this.setSourceMethodName(sourceMethodName);
+                StackTraceElement caller = Callers.find(FQCN);
+                this.setSourceClassName(caller != null ? caller.getClassName() : null);
+                this.setSourceMethodName(caller != null ? caller.getMethodName() : null);
             }
 
             protected Object writeReplace() {
@@ -336,6 +775,36 @@ public abstract class LogFactory {
 
             }
 
+            public void error(String format, Object... args) {
+                if (((LocationAwareLogger)this.logger).isErrorEnabled()) {
+                    ((LocationAwareLogger)this.logger).log((Marker)null, FQCN, 40, format, args, throwableOf(format, args));
+                }
+            }
+
+            public void warn(String format, Object... args) {
+                if (((LocationAwareLogger)this.logger).isWarnEnabled()) {
+                    ((LocationAwareLogger)this.logger).log((Marker)null, FQCN, 30, format, args, throwableOf(format, args));
+                }
+            }
+
+            public void info(String format, Object... args) {
+                if (((LocationAwareLogger)this.logger).isInfoEnabled()) {
+                    ((LocationAwareLogger)this.logger).log((Marker)null, FQCN, 20, format, args, throwableOf(format, args));
+                }
+            }
+
+            public void debug(String format, Object... args) {
+                if (((LocationAwareLogger)this.logger).isDebugEnabled()) {
+                    ((LocationAwareLogger)this.logger).log((Marker)null, FQCN, 10, format, args, throwableOf(format, args));
+                }
+            }
+
+            public void trace(String format, Object... args) {
+                if (((LocationAwareLogger)this.logger).isTraceEnabled()) {
+                    ((LocationAwareLogger)this.logger).log((Marker)null, FQCN, 0, format, args, throwableOf(format, args));
+                }
+            }
+
             protected Object readResolve() {
                 return LogAdapter.Slf4jAdapter.createLocationAwareLog(this.name);
             }
@@ -543,6 +1012,26 @@ public abstract class LogFactory {
                 this.log(org.apache.logging.log4j.Level.TRACE, message, exception);
             }
 
+            public void error(String format, Object... args) {
+                this.logger.logIfEnabled(FQCN, org.apache.logging.log4j.Level.ERROR, (org.apache.logging.log4j.Marker)null, format, args);
+            }
+
+            public void warn(String format, Object... args) {
+                this.logger.logIfEnabled(FQCN, org.apache.logging.log4j.Level.WARN, (org.apache.logging.log4j.Marker)null, format, args);
+            }
+
+            public void info(String format, Object... args) {
+                this.logger.logIfEnabled(FQCN, org.apache.logging.log4j.Level.INFO, (org.apache.logging.log4j.Marker)null, format, args);
+            }
+
+            public void debug(String format, Object... args) {
+                this.logger.logIfEnabled(FQCN, org.apache.logging.log4j.Level.DEBUG, (org.apache.logging.log4j.Marker)null, format, args);
+            }
+
+            public void trace(String format, Object... args) {
+                this.logger.logIfEnabled(FQCN, org.apache.logging.log4j.Level.TRACE, (org.apache.logging.log4j.Marker)null, format, args);
+            }
+
             private void log(org.apache.logging.log4j.Level level, Object message, Throwable exception) {
                 if (message instanceof String) {
                     if (exception != null) {
@@ -636,5 +1125,38 @@ public abstract class LogFactory {
         void trace(Object var1);
 
         void trace(Object var1, Throwable var2);
+
+        /**
+         * 带{}占位符的消息，级别未启用时不会格式化
+         */
+        default void error(String format, Object... args) {
+            if (this.isErrorEnabled()) {
+                this.error(LogFactory.format(format, args), LogFactory.throwableOf(format, args));
+            }
+        }
+
+        default void warn(String format, Object... args) {
+            if (this.isWarnEnabled()) {
+                this.warn(LogFactory.format(format, args), LogFactory.throwableOf(format, args));
+            }
+        }
+
+        default void info(String format, Object... args) {
+            if (this.isInfoEnabled()) {
+                this.info(LogFactory.format(format, args), LogFactory.throwableOf(format, args));
+            }
+        }
+
+        default void debug(String format, Object... args) {
+            if (this.isDebugEnabled()) {
+                this.debug(LogFactory.format(format, args), LogFactory.throwableOf(format, args));
+            }
+        }
+
+        default void trace(String format, Object... args) {
+            if (this.isTraceEnabled()) {
+                this.trace(LogFactory.format(format, args), LogFactory.throwableOf(format, args));
+            }
+        }
     }
 }
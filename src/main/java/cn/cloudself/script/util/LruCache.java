@@ -0,0 +1,131 @@
+package cn.cloudself.script.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 线程安全的有界缓存，命中时只有一次hash查找。
+ * 超出容量时按最近访问时间淘汰最久未使用的一批，空闲超过maxIdleMillis的条目在写入时被顺带清理。
+ */
+public class LruCache<K, V> {
+    private static class Node<V> {
+        private final V value;
+        private volatile long lastAccess;
+
+        private Node(V value) {
+            this.value = value;
+            this.lastAccess = System.currentTimeMillis();
+        }
+    }
+
+    private final ConcurrentHashMap<K, Node<V>> map = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final long maxIdleMillis;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile long lastIdleSweep = System.currentTimeMillis();
+
+    /**
+     * @param maxSize 最大条目数
+     * @param maxIdleMillis 条目空闲多久后可被清理，小于等于0表示不按空闲时间清理
+     */
+    public LruCache(int maxSize, long maxIdleMillis) {
+        this.maxSize = maxSize;
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        final Node<V> cached = map.get(key);
+        if (cached != null) {
+            hits.increment();
+            cached.lastAccess = System.currentTimeMillis();
+            return cached.value;
+        }
+        misses.increment();
+        final Node<V> node = map.computeIfAbsent(key, k -> new Node<>(loader.apply(k)));
+        sweepIdle();
+        if (map.size() > maxSize) {
+            evictOldest();
+        }
+        return node.value;
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    /**
+     * 遍历当前的条目，不影响访问时间以及命中统计
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        map.forEach((key, node) -> action.accept(key, node.value));
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "LruCache{size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "}";
+    }
+
+    private void sweepIdle() {
+        if (maxIdleMillis <= 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (now - lastIdleSweep < maxIdleMillis / 2) {
+            return;
+        }
+        lastIdleSweep = now;
+        final long deadline = now - maxIdleMillis;
+        for (Map.Entry<K, Node<V>> entry : map.entrySet()) {
+            if (entry.getValue().lastAccess < deadline && map.remove(entry.getKey(), entry.getValue())) {
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * 一次淘汰超出部分以及额外十分之一的容量，避免缓存满时每次写入都要排序
+     */
+    private synchronized void evictOldest() {
+        final int overflow = map.size() - maxSize;
+        if (overflow <= 0) {
+            return;
+        }
+        // lastAccess会被并发修改，排序前先取快照
+        final List<Pair<Long, Map.Entry<K, Node<V>>>> entries = new ArrayList<>(map.size());
+        for (Map.Entry<K, Node<V>> entry : map.entrySet()) {
+            entries.add(Pair.of(entry.getValue().lastAccess, entry));
+        }
+        entries.sort(Comparator.comparing(Pair::getKey));
+        final int toEvict = Math.min(entries.size(), overflow + maxSize / 10);
+        for (int i = 0; i < toEvict; i++) {
+            final Map.Entry<K, Node<V>> entry = entries.get(i).getValue();
+            if (map.remove(entry.getKey(), entry.getValue())) {
+                evictions.increment();
+            }
+        }
+    }
+}
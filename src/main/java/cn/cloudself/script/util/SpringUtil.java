@@ -2,18 +2,69 @@ package cn.cloudself.script.util;
 
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单例Bean以及类名的解析结果会被缓存，ApplicationContext刷新时清空
+ */
 @Component
-public class SpringUtil implements ApplicationContextAware {
+public class SpringUtil implements ApplicationContextAware, ApplicationListener<ContextRefreshedEvent> {
     private static ApplicationContext applicationContext;
+    private static final AtomicLong version = new AtomicLong();
+    private static final Map<String, Class<?>> classCache = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Object> beanCache = new ConcurrentHashMap<>();
 
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) {
         SpringUtil.applicationContext = applicationContext;
+        invalidate();
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        invalidate();
+    }
+
+    private static void invalidate() {
+        classCache.clear();
+        beanCache.clear();
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return 每次ApplicationContext刷新后递增，用于判断已绑定的Bean是否过期
+     */
+    public static long getVersion() {
+        return version.get();
     }
 
     public static <T> T getBean(Class<T> clazz) {
-        return applicationContext.getBean(clazz);
+        final Object cached = beanCache.get(clazz);
+        if (cached != null) {
+            //noinspection unchecked
+            return (T) cached;
+        }
+        final T bean = applicationContext.getBean(clazz);
+        // 只缓存唯一的单例，prototype等作用域每次重新获取
+        final String[] names = applicationContext.getBeanNamesForType(clazz);
+        if (names.length == 1 && applicationContext.isSingleton(names[0])) {
+            beanCache.put(clazz, bean);
+        }
+        return bean;
+    }
+
+    public static Object getBean(String className) throws ClassNotFoundException {
+        Class<?> clazz = classCache.get(className);
+        if (clazz == null) {
+            clazz = Class.forName(className);
+            classCache.put(className, clazz);
+        }
+        return getBean(clazz);
     }
 }
@@ -0,0 +1,118 @@
+package cn.cloudself.test;
+
+import cn.cloudself.script.CommonFunctionsForScript;
+import cn.cloudself.script.ContextPool;
+import cn.cloudself.script.JavaScript;
+import cn.cloudself.script.util.SpringUtil;
+import org.graalvm.polyglot.TypeLiteral;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class ContextPoolTest {
+    @Test
+    public void invalidConfig() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ContextPool.Config().setMaxSize(0));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ContextPool.Config().setMinSize(-1));
+        final ContextPool.Config config = new ContextPool.Config().setMaxSize(1).setMinSize(2);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new JavaScript(CommonFunctionsForScript.INSTANCE, config));
+    }
+
+    @Test
+    public void reuse() {
+        JavaScript.disableLogThreadLocal(true);
+        try (final JavaScript js = new JavaScript(CommonFunctionsForScript.INSTANCE, new ContextPool.Config().setMaxSize(2))) {
+            final JavaScript.Prepared prepared = js.compile("const b = a * 2; b + 1");
+            for (int i = 0; i < 10; i++) {
+                assertEquals(2 * i + 1, prepared.eval(Collections.singletonMap("a", i), Integer.class));
+            }
+            assertEquals(1, js.getPool().getCreatedCount());
+            assertEquals(1, js.getPool().getIdleCount());
+        } finally {
+            JavaScript.disableLogThreadLocal(false);
+        }
+    }
+
+    @Test
+    public void varsDoNotLeak() {
+        JavaScript.disableLogThreadLocal(true);
+        try (final JavaScript js = new JavaScript(CommonFunctionsForScript.INSTANCE, new ContextPool.Config().setMaxSize(1))) {
+            assertEquals(1, js.of("a").eval(Collections.singletonMap("a", 1), Integer.class));
+            assertEquals("undefined", js.of("typeof a").eval(Collections.emptyMap(), String.class));
+
+            // 与公共方法同名的变量在归还时还原
+            assertEquals(42, js.of("print").eval(Collections.singletonMap("print", 42), Integer.class));
+            assertEquals("function", js.of("typeof print").eval(Collections.emptyMap(), String.class));
+            js.of("log = 1").eval(Collections.emptyMap(), Integer.class);
+            assertEquals("function", js.of("typeof log").eval(Collections.emptyMap(), String.class));
+            assertEquals(1, js.getPool().getCreatedCount());
+
+            // 顶层var无法清除，该Context不会再被复用
+            js.of("var c = 1; c").eval(Collections.emptyMap(), Integer.class);
+            assertEquals("undefined", js.of("typeof c").eval(Collections.emptyMap(), String.class));
+            assertEquals(2, js.getPool().getCreatedCount());
+            assertEquals(1, js.getPool().getDiscardedCount());
+
+            // 块中的function声明同样会成为全局变量
+            js.of("function f() { return 1 } f()").eval(Collections.emptyMap(), Integer.class);
+            assertEquals("undefined", js.of("typeof f").eval(Collections.emptyMap(), String.class));
+            assertEquals(2, js.getPool().getDiscardedCount());
+        } finally {
+            JavaScript.disableLogThreadLocal(false);
+        }
+    }
+
+    @Test
+    public void parallelBatchSmallerPool() {
+        JavaScript.disableLogThreadLocal(true);
+        final ContextPool.Config config = new ContextPool.Config().setMaxSize(2).setBorrowTimeoutMillis(1500);
+        try (final JavaScript js = new JavaScript(CommonFunctionsForScript.INSTANCE, config)) {
+            final List<Iterator<Map.Entry<String, Integer>>> rows = IntStream.range(0, 4000)
+                    .mapToObj(i -> Collections.singletonMap("a", i).entrySet().iterator())
+                    .collect(Collectors.toList());
+            final List<Integer> results = js.ofBatch("a * 2").evalBatchParallel(Collections.singletonList("a"), rows, 8, 100, new TypeLiteral<Integer>() { });
+            assertEquals(4000, results.size());
+            assertEquals(7998, results.get(3999));
+            // 与evalBatch一样返回可修改的List
+            results.add(0);
+            assertEquals(4001, results.size());
+            Assertions.assertTrue(js.getPool().getCreatedCount() <= 2);
+        } finally {
+            JavaScript.disableLogThreadLocal(false);
+        }
+    }
+
+    @Test
+    public void boundBeans() {
+        JavaScript.disableLogThreadLocal(true);
+        try (final AnnotationConfigApplicationContext spring = new AnnotationConfigApplicationContext(SpringUtil.class, Greeter.class);
+             final JavaScript js = new JavaScript(CommonFunctionsForScript.INSTANCE, new ContextPool.Config().setMaxSize(1)).bindBean("greeter", Greeter.class)) {
+            final JavaScript.Prepared prepared = js.of("greeter");
+            assertEquals("hi a", js.of("greeter.greet('a')").eval(Collections.emptyMap(), String.class));
+            assertSame(spring.getBean(Greeter.class), prepared.eval(Collections.emptyMap(), Object.class));
+
+            // 刷新后重新绑定
+            try (final AnnotationConfigApplicationContext refreshed = new AnnotationConfigApplicationContext(SpringUtil.class, Greeter.class)) {
+                assertSame(refreshed.getBean(Greeter.class), prepared.eval(Collections.emptyMap(), Object.class));
+            }
+        } finally {
+            JavaScript.disableLogThreadLocal(false);
+        }
+    }
+
+    public static class Greeter {
+        public String greet(String name) {
+            return "hi " + name;
+        }
+    }
+}
@@ -1,13 +1,21 @@
 package cn.cloudself.test;
 
+import cn.cloudself.script.CommonFunctionsForScript;
 import cn.cloudself.script.JavaScript;
 import cn.cloudself.script.JavaScriptUtil;
 import cn.cloudself.test.helper.Helper;
+import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.TypeLiteral;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class JavaScriptBatchTest {
     @Test
@@ -25,6 +33,78 @@ public class JavaScriptBatchTest {
         System.out.println(ts);
     }
 
+    @Test
+    public void testBatchStream() {
+        JavaScript.disableLogThreadLocal(true);
+        try {
+            final JavaScript.PreparedBatch preparedBatch = JavaScriptUtil.ofBatch("const s = 100;", "s + a * b");
+            final Stream<Iterator<Map.Entry<String, Integer>>> rows = IntStream.range(0, 1000)
+                    .mapToObj(i -> MapBuilder.createAndPut("a", i).put("b", 2).build().entrySet().iterator());
+            try (final Stream<Integer> results = preparedBatch.evalBatchStream(ListBuilder.create("a", "b"), rows, 64, new TypeLiteral<Integer>() { })) {
+                final List<Integer> list = results.collect(Collectors.toList());
+                assertEquals(1000, list.size());
+                assertEquals(100, list.get(0));
+                assertEquals(100 + 999 * 2, list.get(999));
+            }
+        } finally {
+            JavaScript.disableLogThreadLocal(false);
+        }
+    }
+
+    @Test
+    public void testBatchParallel() {
+        final List<Iterator<Map.Entry<String, Integer>>> rows = IntStream.range(0, 1000)
+                .mapToObj(i -> MapBuilder.createAndPut("a", i).build().entrySet().iterator())
+                .collect(Collectors.toList());
+        final List<Integer> results = JavaScriptUtil.ofBatch("a * 2").evalBatchParallel(ListBuilder.create("a"), rows, 4, 100, new TypeLiteral<Integer>() { });
+        assertEquals(1000, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i * 2, results.get(i));
+        }
+    }
+
+    @Test
+    public void testBatchColumns() {
+        JavaScript.disableLogThreadLocal(true);
+        try {
+            final JavaScript.PreparedBatch preparedBatch = JavaScriptUtil.ofBatch("const rate = 0.5;", "a * b * rate");
+            final double[] a = {1, 2, 3};
+            final long[] b = {10, 20, 30};
+            final double[] results = new double[3];
+            preparedBatch.evalColumns(ListBuilder.create("a", "b"), new Object[]{a, b}, results);
+            assertArrayEquals(new double[]{5, 20, 45}, results);
+
+            final Object[] names = new Object[2];
+            JavaScriptUtil.ofBatch("name + ':' + n").evalColumns(ListBuilder.create("name", "n"), new Object[]{new String[]{"x", "y"}, new int[]{1, 2}}, names);
+            assertArrayEquals(new Object[]{"x:1", "y:2"}, names);
+        } finally {
+            JavaScript.disableLogThreadLocal(false);
+        }
+    }
+
+    @Test
+    public void testBatchSourceCached() {
+        JavaScript.disableLogThreadLocal(true);
+        try (final JavaScript js = new JavaScript(CommonFunctionsForScript.INSTANCE)) {
+            final JavaScript.PreparedBatch batch = js.ofBatch("function f(a) { return a * 2 + 1; }", "f(a)");
+            assertEquals(ListBuilder.create(5), batch.evalBatch(ListBuilder.create("a"), batchOf(2)));
+            assertEquals(ListBuilder.create(7), batch.evalBatch(ListBuilder.create("a"), batchOf(3)));
+
+            // 相同的varNames复用同一个Source，且由Engine缓存解析结果(未池化时每次都是新的Context)
+            assertEquals(1, batch.getSourceCache().size());
+            assertEquals(1, batch.getSourceCache().getHitCount());
+            // Source的equals包含cached属性
+            batch.getSourceCache().forEach((varNames, source) -> assertEquals(
+                    Source.newBuilder("js", source.getCharacters(), source.getName()).cached(true).buildLiteral(), source));
+        } finally {
+            JavaScript.disableLogThreadLocal(false);
+        }
+    }
+
+    private static List<Iterator<Map.Entry<String, Integer>>> batchOf(int a) {
+        return ListBuilder.create(MapBuilder.createAndPut("a", a).build().entrySet().iterator());
+    }
+
     private static class ListBuilder {
         public static <V> List<V> create(V ...value) {
             return Arrays.stream(value).collect(Collectors.toList());
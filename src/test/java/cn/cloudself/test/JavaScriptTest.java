@@ -1,18 +1,37 @@
 package cn.cloudself.test;
 
+import cn.cloudself.script.Codecs;
+import cn.cloudself.script.CommonFunctionsForScript;
+import cn.cloudself.script.EvalLog;
 import cn.cloudself.script.JavaScript;
 import cn.cloudself.script.JavaScriptUtil;
+import cn.cloudself.script.JsProxy;
+import cn.cloudself.script.LazyResult;
+import cn.cloudself.script.ScriptOutput;
+import cn.cloudself.script.util.BeanHelper;
 import cn.cloudself.test.helper.Helper;
+import org.graalvm.polyglot.PolyglotException;
 import org.graalvm.polyglot.TypeLiteral;
+import org.graalvm.polyglot.Value;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.lang.ref.WeakReference;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class JavaScriptTest {
     @Test
@@ -75,6 +94,242 @@ public class JavaScriptTest {
         System.out.println(compiled.eval(vars, Object.class));
     }
 
+    @Test
+    public void preparedCache() {
+        final long hits = JavaScriptUtil.getOfCache().getHitCount();
+        final JavaScript.Prepared prepared = JavaScriptUtil.of("x * 3");
+        assertSame(prepared, JavaScriptUtil.of("x * 3"));
+        assertNotSame(prepared, JavaScriptUtil.compile("x * 3"));
+        assertEquals(hits + 1, JavaScriptUtil.getOfCache().getHitCount());
+        assertNotSame(prepared, prepared.addValueTranslator(v -> v));
+        // 共享的Prepared添加转换器时返回副本，缓存中的对象不受影响
+        final JavaScript.Prepared shared = JavaScriptUtil.of("({f: () => x})");
+        final JavaScript.Prepared copy = shared.addValueTranslator(v -> v.canExecute() ? "fn" : v);
+        assertSame(copy, copy.addValueTranslator(v -> v));
+        assertNotSame(shared, copy);
+        assertEquals("fn", copy.evalAsMap(Collections.singletonMap("x", 2)).get("f"));
+        assertNotEquals("fn", shared.evalAsMap(Collections.singletonMap("x", 2)).get("f"));
+    }
+
+    @Test
+    public void jsToBean() {
+        final Bean bean = JavaScriptUtil.of("{num1: 5, num2: n, bool1: false, bool2: true, date: new Date(0), nums: [1, 2, 3]}")
+                .evalAsBean(Collections.singletonMap("n", 6), Bean.class);
+        assertEquals(5, bean.getNum1());
+        assertEquals(6L, bean.getNum2());
+        assertEquals(false, bean.getBool1());
+        assertEquals(true, bean.isBool2());
+        assertEquals(new Date(0), bean.getDate());
+        assertEquals(Arrays.asList(1, 2, 3), bean.getNums());
+    }
+
+    @Test
+    public void beanDecoderCollected() throws InterruptedException {
+        final JavaScript.Prepared shared = JavaScriptUtil.of("({n})");
+        final List<WeakReference<Function<Value, Object>>> translators = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final String marker = "translator-" + i;
+            final Function<Value, Object> translator = v -> v.isString() && v.asString().equals(marker) ? null : v;
+            translators.add(new WeakReference<>(translator));
+            // Wallet的属性是Bean类型，其转换函数引用了decoder
+            assertNotNull(shared.copy().addValueTranslator(translator).evalAsBean(Collections.singletonMap("n", 3), Wallet.class));
+        }
+        // 转换器被decoder持有，decoder不再使用后应能被回收
+        for (int i = 0; i < 50 && translators.stream().anyMatch(ref -> ref.get() != null); i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertTrue(translators.stream().allMatch(ref -> ref.get() == null));
+    }
+
+    @Test
+    public void lazyResult() {
+        final Map<String, Object> materialized;
+        try (final LazyResult.LazyMap result = JavaScriptUtil.of("{a: n, b: {c: [1, new Date(0)]}}")
+                .evalAsLazyMap(Collections.singletonMap("n", 6))) {
+            assertEquals(6, result.get("a"));
+            assertEquals(new HashSet<>(Arrays.asList("a", "b")), result.keySet());
+            final Map<?, ?> b = (Map<?, ?>) result.get("b");
+            assertInstanceOf(LazyResult.LazyList.class, b.get("c"));
+            assertSame(b, result.get("b"));
+            materialized = result.materialize();
+        }
+        final List<?> c = (List<?>) ((Map<?, ?>) materialized.get("b")).get("c");
+        assertEquals(1, c.get(0));
+        assertInstanceOf(LocalDateTime.class, c.get(1));
+    }
+
+    @Test
+    public void proxyVars() {
+        final Bean bean = new Bean().setNum2(7L).setNums(new ArrayList<>(Arrays.asList(1, 2, 3)));
+        final Map<String, Object> order = new HashMap<>();
+        order.put("bean", bean);
+        final Map<String, Object> result = JavaScriptUtil.of("const {num1, num2, nums} = order.bean; nums[0] = 10; order.total = num1 + num2 + nums.length; ({keys: Object.keys(order.bean), bean: order.bean})")
+                .evalAsMap(Collections.singletonMap("order", JsProxy.of(order)));
+        assertEquals(11, order.get("total"));
+        assertEquals(10, bean.getNums().get(0));
+        assertSame(bean, result.get("bean"));
+        assertEquals(Arrays.asList("num1", "num2", "bool1", "bool2", "date", "nums"), result.get("keys"));
+
+        // push以及在末尾赋值会追加到原List
+        final List<Object> items = new ArrayList<>(Arrays.asList(1, 2));
+        assertEquals(4, JavaScriptUtil.of("items.push(3); items[items.length] = 4; items.length").eval(Collections.singletonMap("items", JsProxy.of(items)), Integer.class));
+        assertEquals(Arrays.asList(1, 2, 3, 4), items);
+    }
+
+    @Test
+    public void beanToMap() {
+        final Bean bean = new Bean().setNum2(7L).setNums(Arrays.asList(1, 2));
+        final Map<String, Object> map = BeanHelper.createDefault().toMapDeep(bean);
+        assertEquals(7L, map.get("num2"));
+        assertEquals(Arrays.asList(1, 2), map.get("nums"));
+
+        final List<Object> cyclic = new ArrayList<>();
+        cyclic.add(cyclic);
+        //noinspection unchecked
+        final Bean cyclicBean = new Bean().setNums((List<Integer>) (List<?>) cyclic);
+        Assertions.assertThrows(RuntimeException.class, () -> BeanHelper.createDefault().toMapDeep(cyclicBean));
+        assertSame(cyclic, BeanHelper.createDefault().setMaxDepth(1).toMapDeep(cyclicBean).get("nums"));
+    }
+
+    @Test
+    public void beanToJson() {
+        final Bean bean = new Bean().setNum2(7L).setNums(Arrays.asList(1, 2)).setDate(new Date(0));
+        final String json = BeanHelper.createDefault().toJson(Collections.singletonMap("bean\n\"", bean));
+        final Map<String, Object> parsed = JavaScriptUtil.of("JSON.parse(json)['bean\\n\"']").evalAsMap(Collections.singletonMap("json", json));
+        assertEquals(7, parsed.get("num2"));
+        assertEquals("1970-01-01T00:00:00Z", parsed.get("date"));
+        assertEquals(Arrays.asList(1, 2), parsed.get("nums"));
+
+        final ByteBuffer buffer = ByteBuffer.allocate(64);
+        BeanHelper.createDefault().writeJson(Arrays.asList("中文", "\uD83D\uDE00"), buffer);
+        assertEquals("[\"中文\",\"\uD83D\uDE00\"]", new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void codecs() {
+        JavaScript.disableLogThreadLocal(true);
+        try (final JavaScript js = new JavaScript(CommonFunctionsForScript.INSTANCE)) {
+            js.getCodecs()
+                    .register(Money.class, m -> m.cents, v -> new Money(v.asLong()))
+                    .decode(Codecs.JsKind.STRING, v -> v.asString().trim());
+            final Money money = js.of("({cents: price + 1})").evalAsBean(Collections.singletonMap("price", new Money(100)), Wallet.class).cents;
+            assertEquals(101, money.cents);
+            assertEquals(Collections.singletonList("a"), js.of("[' a ']").evalAsList(Collections.emptyMap()));
+
+            // 代理中的值同样按该实例的规则转换
+            final Map<String, Object> order = new HashMap<>();
+            order.put("price", new Money(100));
+            js.of("order.total = order.price + 1; order.name = ' x '").eval(Collections.singletonMap("order", js.proxy(order)), Object.class);
+            assertEquals(101, order.get("total"));
+            assertEquals("x", order.get("name"));
+
+            // 批量计算的结果类型同样使用注册的转换器
+            final List<Money> batch = js.ofBatch("a * 2").evalBatch(Collections.singletonList("a"),
+                    Arrays.asList(Collections.singletonMap("a", 1).entrySet().iterator(), Collections.singletonMap("a", 2).entrySet().iterator()),
+                    new TypeLiteral<Money>() { });
+            assertEquals(4, batch.get(1).cents);
+        } finally {
+            JavaScript.disableLogThreadLocal(false);
+        }
+    }
+
+    @Test
+    public void json() {
+        final JavaScript.Prepared prepared = JavaScriptUtil.of("({sum: a + b.c, items: [b.c, 'x']})");
+        final byte[] jsonVars = "{\"a\": 1, \"b\": {\"c\": 2}}".getBytes(StandardCharsets.UTF_8);
+        assertEquals("{\"sum\":3,\"items\":[2,\"x\"]}", prepared.evalAsJson(jsonVars));
+        assertEquals(3, prepared.evalAsMap(jsonVars).get("sum"));
+
+        final Map<String, Object> vars = new HashMap<>();
+        vars.put("a", 1);
+        vars.put("b", Collections.singletonMap("c", 2));
+        assertEquals("{\"sum\":3,\"items\":[2,\"x\"]}", new String(prepared.evalAsJsonBytes(vars), StandardCharsets.UTF_8));
+
+        // java的Map, List, BigDecimal以及Bean序列化为JSON而不是{}
+        final Map<String, Object> order = new LinkedHashMap<>();
+        order.put("tags", Arrays.asList("a", "b"));
+        order.put("amount", new BigDecimal("12.5"));
+        order.put("bean", new Bean().setDate(null).setNums(Arrays.asList(1, 2)));
+        assertEquals("{\"order\":{\"tags\":[\"a\",\"b\"],\"amount\":12.5,\"bean\":{\"num1\":1,\"num2\":2,\"bool1\":true,\"bool2\":false,\"date\":null,\"nums\":[1,2]}}}",
+                JavaScriptUtil.of("({order})").evalAsJson(Collections.singletonMap("order", order)));
+        final RuntimeException e = assertThrows(RuntimeException.class,
+                () -> JavaScriptUtil.of("({amount})").evalAsJson(Collections.singletonMap("amount", new BigDecimal("1e30"))));
+        assertTrue(e.getMessage().contains("无法序列化为JSON"), e.getMessage());
+    }
+
+    @Test
+    public void hostFunctions() {
+        JavaScript.disableLogThreadLocal(true);
+        try (final JavaScript js = new JavaScript(new Functions())) {
+            assertEquals(8, js.of("add(1, 2) + add(5)").eval(Collections.emptyMap(), Integer.class));
+            assertEquals("a-b-c", js.of("join('a', 'b', 'c')").eval(Collections.emptyMap(), String.class));
+            assertEquals("undefined", js.of("typeof isPresent").eval(Collections.emptyMap(), String.class));
+        } finally {
+            JavaScript.disableLogThreadLocal(false);
+        }
+    }
+
+    @Test
+    public void scriptId() {
+        Helper.initLogger();
+        EvalLog.setSampleRate(0.5);
+        try (final JavaScript js = new JavaScript(CommonFunctionsForScript.INSTANCE)) {
+            final JavaScript.Prepared prepared = js.of("a + 1");
+            assertEquals(prepared.getScriptId(), js.of("a + 1").getScriptId());
+            Assertions.assertNotEquals(prepared.getScriptId(), js.of("a + 2").getScriptId());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i + 1, prepared.eval(Collections.singletonMap("a", i), Integer.class));
+            }
+
+            final JavaScript.Prepared broken = js.of("undefinedFunction()");
+            final PolyglotException e = Assertions.assertThrows(PolyglotException.class, () -> broken.eval(Collections.emptyMap(), Object.class));
+            assertEquals(broken.getScriptId(), e.getSourceLocation().getSource().getName());
+        } finally {
+            EvalLog.setSampleRate(1);
+        }
+    }
+
+    @Test
+    public void scriptOutput() {
+        final JavaScript.Prepared prepared = JavaScriptUtil.of("print('a' + n); log('b' + n); print('c'); n");
+        final ScriptOutput output = new ScriptOutput(1024);
+        assertEquals(1, output.capture(() -> prepared.eval(Collections.singletonMap("n", 1), Integer.class)));
+        assertEquals("a1\nc\n", output.getOut());
+        assertEquals("b1\n", output.getLog());
+
+        final ScriptOutput small = new ScriptOutput(5);
+        small.capture(() -> prepared.eval(Collections.singletonMap("n", 12345), Integer.class));
+        assertEquals("a1234", small.getOut());
+        Assertions.assertTrue(small.isTruncated());
+    }
+
+    public static class Functions extends CommonFunctionsForScript {
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        public int add(int a) {
+            return a;
+        }
+
+        public String join(String... parts) {
+            return String.join("-", parts);
+        }
+    }
+
+    static class Money {
+        private final long cents;
+
+        Money(long cents) {
+            this.cents = cents;
+        }
+    }
+
+    static class Wallet {
+        private Money cents;
+    }
+
     static class Bean {
         private Integer num1 = 1;
         private Long num2 = 2L;
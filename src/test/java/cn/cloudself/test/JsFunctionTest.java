@@ -0,0 +1,52 @@
+package cn.cloudself.test;
+
+import cn.cloudself.script.CommonFunctionsForScript;
+import cn.cloudself.script.ContextPool;
+import cn.cloudself.script.JavaScript;
+import cn.cloudself.script.JsFunction;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.ToDoubleFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class JsFunctionTest {
+    @Test
+    public void call() {
+        try (final JavaScript js = new JavaScript(CommonFunctionsForScript.INSTANCE)) {
+            try (final JsFunction f = js.function("a, b", "a * b + 1")) {
+                assertEquals(7.0, f.callAsDouble(2, 3));
+                assertEquals(7, f.call(2, 3));
+                assertEquals(11.0, f.callAsDouble(new BigDecimal("2.5"), 4));
+                final Object[] args = {new BigDecimal("2.5"), 4};
+                assertEquals(11.0, f.callAsDouble(args));
+                assertEquals(new BigDecimal("2.5"), args[0]);
+
+                final DoubleBinaryOperator operator = f.asDoubleBinaryOperator();
+                double sum = 0;
+                for (int i = 0; i < 1000; i++) {
+                    sum += operator.applyAsDouble(i, 2);
+                }
+                assertEquals(999 * 1000 + 1000, sum);
+            }
+        }
+    }
+
+    @Test
+    public void pooled() {
+        try (final JavaScript js = new JavaScript(CommonFunctionsForScript.INSTANCE, new ContextPool.Config().setMaxSize(1))) {
+            try (final JsFunction f = js.function("row", "row.get('price') * row.get('count');")) {
+                final ToDoubleFunction<Map<String, Object>> total = f.asToDoubleFunction();
+                final Map<String, Object> row = new HashMap<>();
+                row.put("price", 2.5);
+                row.put("count", 4);
+                assertEquals(10.0, total.applyAsDouble(row));
+            }
+            assertEquals(1, js.getPool().getIdleCount());
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package cn.cloudself.test;
+
+import cn.cloudself.script.JavaScriptUtil;
+import cn.cloudself.script.util.LogFactory;
+import cn.cloudself.test.helper.Helper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class LogTest {
+    @Test
+    public void asyncLog() {
+        Helper.initLogger();
+        final LogFactory.AsyncLog log = LogFactory.getAsyncLog(LogTest.class);
+        IntStream.range(0, 100).parallel().forEach(i -> log.debug("row {} of {}", i, 100));
+        log.info("with exception {}", "x", new RuntimeException("expected"));
+        JavaScriptUtil.of("log({a: 1}); 1").eval(Collections.emptyMap(), Integer.class);
+
+        Assertions.assertTrue(LogFactory.AsyncLog.flush(5000));
+        assertEquals(0, log.getDroppedCount());
+    }
+}
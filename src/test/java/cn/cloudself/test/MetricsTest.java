@@ -0,0 +1,67 @@
+package cn.cloudself.test;
+
+import cn.cloudself.script.CommonFunctionsForScript;
+import cn.cloudself.script.ContextPool;
+import cn.cloudself.script.DefaultScriptMetrics;
+import cn.cloudself.script.JavaScript;
+import cn.cloudself.script.JavaScriptUtil;
+import cn.cloudself.script.ScriptMetrics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MetricsTest {
+    @Test
+    public void phases() throws Exception {
+        JavaScript.disableLogThreadLocal(true);
+        final DefaultScriptMetrics metrics = new DefaultScriptMetrics().registerMBean("test");
+        try (final JavaScript js = new JavaScript(CommonFunctionsForScript.INSTANCE, new ContextPool.Config()).setMetrics(metrics)) {
+            final JavaScript.Prepared prepared = js.of("a + 1");
+            for (int i = 0; i < 3; i++) {
+                prepared.eval(Collections.singletonMap("a", i), Integer.class);
+            }
+            final List<Iterator<? extends Map.Entry<String, ?>>> rows = IntStream.range(0, 10)
+                    .mapToObj(i -> Collections.singletonMap("a", (Object) i).entrySet().iterator())
+                    .collect(Collectors.toList());
+            js.ofBatch("a * 2").evalBatch(Collections.singletonList("a"), rows);
+
+            assertEquals(4, metrics.getPhase(ScriptMetrics.Phase.LEASE).getCount());
+            assertEquals(3, metrics.getPhase(ScriptMetrics.Phase.EVAL).getCount());
+            assertEquals(3, metrics.getPhase(ScriptMetrics.Phase.CONVERT).getCount());
+            assertEquals(10, metrics.getPhase(ScriptMetrics.Phase.BATCH).getItems());
+            assertEquals(3, metrics.getScripts().get(prepared.getScriptId() + "/EVAL").getCount());
+            assertEquals(1L, metrics.getGauges().get("pool.created"));
+
+            final ObjectName name = new ObjectName("cn.cloudself.script:type=ScriptMetrics,name=\"test\"");
+            final TabularData phases = (TabularData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Phases");
+            assertEquals(ScriptMetrics.Phase.values().length, phases.size());
+            Assertions.assertInstanceOf(TabularData.class, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Gauges"));
+        } finally {
+            JavaScript.disableLogThreadLocal(false);
+        }
+    }
+
+    @Test
+    public void cacheGauges() {
+        final DefaultScriptMetrics metrics = new DefaultScriptMetrics();
+        JavaScriptUtil.setMetrics(metrics);
+        try {
+            final Map<String, Long> gauges = metrics.getGauges();
+            assertEquals((Long) JavaScriptUtil.getOfCache().getEvictionCount(), gauges.get("of-cache.evictions"));
+            assertEquals((Long) JavaScriptUtil.getCompileCache().getEvictionCount(), gauges.get("compile-cache.evictions"));
+        } finally {
+            JavaScriptUtil.setMetrics(null);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package cn.cloudself.test;
+
+import cn.cloudself.script.JavaScript;
+import cn.cloudself.script.JavaScriptUtil;
+import cn.cloudself.script.util.SpringUtil;
+import cn.cloudself.test.helper.FakeDataSource;
+import org.graalvm.polyglot.TypeLiteral;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class QueryTest {
+    private static AnnotationConfigApplicationContext spring(FakeDataSource dataSource) {
+        final AnnotationConfigApplicationContext spring = new AnnotationConfigApplicationContext();
+        spring.register(SpringUtil.class);
+        spring.registerBean(DataSource.class, dataSource::create);
+        spring.refresh();
+        return spring;
+    }
+
+    @Test
+    public void memoized() {
+        final FakeDataSource dataSource = new FakeDataSource(3);
+        JavaScript.disableLogThreadLocal(true);
+        try (final AnnotationConfigApplicationContext ignored = spring(dataSource)) {
+            final JavaScript.Prepared prepared = JavaScriptUtil.of("queryAll('select ?', [1]).length + queryAll('select ?', [1]).length + queryOne('select ?', [2]).p");
+            assertEquals(8, prepared.eval(Collections.emptyMap(), Integer.class));
+            assertEquals(2, dataSource.queries.get());
+
+            final List<Iterator<Map.Entry<String, Integer>>> rows = IntStream.range(0, 10)
+                    .mapToObj(i -> Collections.singletonMap("a", i % 2).entrySet().iterator())
+                    .collect(Collectors.toList());
+            final List<Integer> results = JavaScriptUtil.ofBatch("queryOne('select ?', [a]).p").evalBatch(Collections.singletonList("a"), rows, new TypeLiteral<Integer>() { });
+            assertEquals(1, results.get(9));
+            assertEquals(4, dataSource.queries.get());
+
+            // 并行计算的各worker共用查询缓存，相同的查询只执行一次
+            dataSource.queryDelayMillis = 50;
+            final List<Iterator<Map.Entry<String, Integer>>> parallelRows = IntStream.range(0, 64)
+                    .mapToObj(i -> Collections.singletonMap("a", 7).entrySet().iterator())
+                    .collect(Collectors.toList());
+            final List<Integer> parallelResults = JavaScriptUtil.ofBatch("queryOne('select ?', [a]).p")
+                    .evalBatchParallel(Collections.singletonList("a"), parallelRows, 8, 1, new TypeLiteral<Integer>() { });
+            assertEquals(7, parallelResults.get(63));
+            assertEquals(5, dataSource.queries.get());
+        } finally {
+            JavaScript.disableLogThreadLocal(false);
+        }
+    }
+
+    @Test
+    public void stream() {
+        final FakeDataSource dataSource = new FakeDataSource(1000);
+        JavaScript.disableLogThreadLocal(true);
+        try (final AnnotationConfigApplicationContext ignored = spring(dataSource)) {
+            final JavaScript.Prepared prepared = JavaScriptUtil.of("let sum = 0; for (const row of queryStream('select ?', [5], 100)) { sum += row.n + row.p } sum");
+            assertEquals(499500 + 5000, prepared.eval(Collections.emptyMap(), Integer.class));
+            assertEquals(0, dataSource.openConnections.get());
+
+            // 未遍历完的游标在所属分块结束时关闭，而不是整个批次结束时
+            final Iterator<Iterator<Map.Entry<String, Integer>>> rows = IntStream.range(0, 5)
+                    .mapToObj(i -> Collections.singletonMap("a", i).entrySet().iterator())
+                    .iterator();
+            try (final JavaScript.PreparedBatch.BatchIterator<Integer> results = JavaScriptUtil.ofBatch(null, "for (const row of queryStream('select ?', [a], 10)) { break }", "a")
+                    .evalBatchIterator(Collections.singletonList("a"), rows, 1, new TypeLiteral<Integer>() { })) {
+                while (results.hasNext()) {
+                    results.next();
+                    assertEquals(0, dataSource.openConnections.get());
+                }
+            }
+        } finally {
+            JavaScript.disableLogThreadLocal(false);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package cn.cloudself.test.helper;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 不依赖数据库的DataSource，每次查询返回rows行，列n为行号(从0开始)，列p为第一个参数
+ */
+public class FakeDataSource {
+    public final AtomicInteger queries = new AtomicInteger();
+    /**
+     * 未关闭的连接数
+     */
+    public final AtomicInteger openConnections = new AtomicInteger();
+    /**
+     * 每次查询的耗时，用于模拟慢查询
+     */
+    public volatile long queryDelayMillis = 0;
+    private final int rows;
+
+    public FakeDataSource(int rows) {
+        this.rows = rows;
+    }
+
+    public DataSource create() {
+        return proxy(DataSource.class, (name, args) -> {
+            if (name.equals("getConnection")) {
+                openConnections.incrementAndGet();
+                return connection();
+            }
+            return null;
+        });
+    }
+
+    private Connection connection() {
+        return proxy(Connection.class, (name, args) -> {
+            if (name.equals("prepareStatement")) {
+                return statement();
+            } else if (name.equals("close")) {
+                openConnections.decrementAndGet();
+            }
+            return null;
+        });
+    }
+
+    private PreparedStatement statement() {
+        final List<Object> params = new ArrayList<>();
+        return proxy(PreparedStatement.class, (name, args) -> {
+            if (name.equals("setObject")) {
+                params.add(args[1]);
+            } else if (name.equals("executeQuery")) {
+                queries.incrementAndGet();
+                if (queryDelayMillis > 0) {
+                    try {
+                        Thread.sleep(queryDelayMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return resultSet(params.isEmpty() ? null : params.get(0));
+            }
+            return null;
+        });
+    }
+
+    private ResultSet resultSet(Object p) {
+        final int[] row = {-1};
+        final ResultSetMetaData metaData = proxy(ResultSetMetaData.class, (name, args) -> {
+            if (name.equals("getColumnCount")) {
+                return 2;
+            } else if (name.equals("getColumnLabel")) {
+                return (int) args[0] == 1 ? "n" : "p";
+            }
+            return null;
+        });
+        return proxy(ResultSet.class, (name, args) -> {
+            switch (name) {
+                case "getMetaData":
+                    return metaData;
+                case "next":
+                    return ++row[0] < rows;
+                case "getObject":
+                    return (int) args[0] == 1 ? (Object) row[0] : p;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private interface Handler {
+        Object invoke(String name, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        //noinspection unchecked
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, (proxy, method, args) -> {
+            final Object result = handler.invoke(method.getName(), args);
+            if (result == null && method.getReturnType() == boolean.class) {
+                return false;
+            }
+            if (result == null && method.getReturnType() == int.class) {
+                return 0;
+            }
+            return result;
+        });
+    }
+}